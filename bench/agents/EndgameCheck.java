@@ -0,0 +1,224 @@
+package agents;
+
+import java.util.SplittableRandom;
+
+import loveletter.*;
+
+/**
+ * Checks the EndgameSolver against slower ways of finding the same answers,
+ * and against the search it replaces. It lives in the agents package to reach
+ * the package private parts of PackedState. Run it after mkBench has compiled
+ * the benchmarks, with
+ *
+ * <pre>
+ * java -cp bench-bin agents.EndgameCheck [positions]
+ * </pre>
+ *
+ * It reports:
+ *
+ * <ul>
+ * <li>the largest difference between the chances value gives and those of a
+ * naive expectimax, which copies the state at every node, remembers nothing,
+ * and makes each card left in the deck a chance event of its own;</li>
+ * <li>the largest amount by which the chances of the players fail to add up to
+ * 1;</li>
+ * <li>how many decisions of played games a solver remembering the positions of
+ * earlier decisions scores differently from a new solver, and how long the
+ * solver remembering them takes for each decision;</li>
+ * <li>how often a search of 2000 iterations picks a move the solver scores
+ * lower than its best at those decisions, and the chance of winning it loses
+ * on average.</li>
+ * </ul>
+ *
+ * It exits with status 1 if the solver disagrees with the naive expectimax or
+ * with itself.
+ **/
+public class EndgameCheck {
+
+  // the most cards left in the deck at the decisions checked, as MCTSAgent
+  // solves by default; the positions checked have up to one more, being about
+  // to draw
+  private static final int DECK = 3;
+  // the largest difference put down to rounding
+  private static final double TOLERANCE = 1e-12;
+
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    boolean failed = false;
+
+    SplittableRandom rand = new SplittableRandom(8);
+    EndgameSolver solver = new EndgameSolver();
+    int[] actions = new int[State.MAX_ACTIONS];
+    double worst = 0, worstSum = 0;
+    int positions = 0;
+    for (int t = 0; t < count; t++) {
+      int num = 2 + rand.nextInt(3);
+      PackedState s = new PackedState(num);
+      s.deal(rand);
+      int deck = 1 + rand.nextInt(DECK + 1);
+      while (!s.roundOver() && s.deckSize() > deck) {
+        Card drawn = s.drawCard();
+        int n = RolloutKernel.moves(s, drawn, actions);
+        s.play(actions[rand.nextInt(n)], drawn);
+      }
+      if (s.roundOver())
+        continue;
+      double[] naive = naive(s);
+      double sum = 0;
+      for (int p = 0; p < num; p++) {
+        double v = solver.value(s, p);
+        worst = Math.max(worst, Math.abs(v - naive[p]));
+        sum += v;
+      }
+      worstSum = Math.max(worstSum, Math.abs(sum - 1));
+      positions++;
+    }
+    System.out.println(positions + " positions: largest difference from the naive expectimax " + worst
+        + ", largest error in the sum of the chances " + worstSum);
+    failed |= worst > TOLERANCE || worstSum > TOLERANCE;
+
+    Judge.warm = new EndgameSolver();
+    LoveLetter engine = new LoveLetter(5, null);
+    for (int g = 0; g < Math.max(1, count / 50); g++) {
+      engine.playGame(new Agent[] { new Judge(g), new Judge(g + 1) });
+      engine.playGame(new Agent[] { new Judge(g), new Judge(g + 1), new Judge(g + 2), new Judge(g + 3) });
+    }
+    System.out.println(Judge.decisions + " decisions: " + Judge.mismatches + " scored differently by a warm solver, "
+        + "taking " + Judge.nanos / Judge.decisions / 1000 + "us on average and " + Judge.maxNanos / 1000
+        + "us at most; the search chose a worse move " + Judge.worse + " times, losing "
+        + Judge.regret / Judge.decisions + " chance of winning on average");
+    failed |= Judge.mismatches > 0;
+
+    if (failed) {
+      System.out.println("FAILED");
+      System.exit(1);
+    }
+  }
+
+  // the chance of each player winning from a position with the next player about
+  // to draw, each card left in the deck being equally likely to come next
+  private static double[] naive(PackedState s) {
+    double[] out = new double[4];
+    if (s.roundOver()) {
+      out[s.roundWinner()] = 1;
+      return out;
+    }
+    int d = s.deckSize();
+    int[] actions = new int[State.MAX_ACTIONS];
+    for (int k = 0; k < d; k++) {
+      PackedState t = raised(s, k);
+      Card drawn = t.drawCard();
+      int player = t.nextPlayer();
+      int n = RolloutKernel.moves(t, drawn, actions);
+      double[] best = null;
+      for (int i = 0; i < n; i++) {
+        double[] v = afterMove(t, actions[i], drawn);
+        if (best == null || v[player] > best[player])
+          best = v;
+      }
+      for (int p = 0; p < 4; p++)
+        out[p] += best[p] / d;
+    }
+    return out;
+  }
+
+  // the chance of each player winning once a move is made, averaged over the
+  // card a Prince forces the target to draw
+  private static double[] afterMove(PackedState t, int move, Card drawn) {
+    if (Action.cardOf(move) != Card.PRINCE) {
+      PackedState u = new PackedState(t);
+      u.play(move, drawn);
+      return naive(u);
+    }
+    double[] out = new double[4];
+    int d = t.deckSize();
+    for (int k = 0; k < d; k++) {
+      PackedState u = raised(t, k);
+      u.play(move, drawn);
+      double[] v = naive(u);
+      for (int p = 0; p < 4; p++)
+        out[p] += v[p] / d;
+    }
+    return out;
+  }
+
+  // a copy of a state with the card k from the top of the deck moved to the top
+  private static PackedState raised(PackedState s, int k) {
+    PackedState drawing = new PackedState(s);
+    Card c = null;
+    for (int i = 0; i <= k; i++)
+      c = drawing.drawCard();
+    PackedState t = new PackedState(s);
+    t.raise(c);
+    return t;
+  }
+
+  /**
+   * A player that moves at random, and at each decision late in a round
+   * compares the scores of a warm and a new solver, and the move of a search
+   * with the solver's best.
+   **/
+  private static class Judge implements Agent {
+
+    static EndgameSolver warm;
+    static int decisions, mismatches, worse;
+    static double regret;
+    static long nanos, maxNanos;
+
+    private final SplittableRandom rand;
+    private final BeliefTracker beliefs = new BeliefTracker();
+    private final MCTSAgent search;
+    private State current;
+
+    Judge(long seed) {
+      rand = new SplittableRandom(seed);
+      search = new MCTSAgent(SearchBudget.iterations(1), new SplittableRandom(seed));
+      search.setEndgame(0);
+    }
+
+    public void newRound(State start) {
+      current = start;
+      beliefs.reset(start);
+      search.newRound(start);
+    }
+
+    public void see(Action act, State results) {
+      current = results;
+      beliefs.observe(act, results);
+      search.see(act, results);
+    }
+
+    public Action playCard(Card c) {
+      beliefs.drew(c);
+      // the search plays every move to keep its beliefs, but only searches late in the round
+      boolean late = current.deckSize() <= DECK;
+      search.setBudget(SearchBudget.iterations(late ? 2000 : 1));
+      Action searched = search.playCard(c);
+      if (late) {
+        int[] moves = new int[State.MAX_ACTIONS], coldMoves = new int[State.MAX_ACTIONS];
+        double[] scores = new double[State.MAX_ACTIONS], coldScores = new double[State.MAX_ACTIONS];
+        long start = System.nanoTime();
+        int n = warm.evaluate(current, c, beliefs, moves, scores);
+        long took = System.nanoTime() - start;
+        nanos += took;
+        maxNanos = Math.max(maxNanos, took);
+        new EndgameSolver().evaluate(current, c, beliefs, coldMoves, coldScores);
+        double best = 0, chosen = 0;
+        for (int i = 0; i < n; i++) {
+          if (moves[i] != coldMoves[i] || Math.abs(scores[i] - coldScores[i]) > TOLERANCE)
+            mismatches++;
+          best = Math.max(best, scores[i]);
+          if (moves[i] == searched.code())
+            chosen = scores[i];
+        }
+        decisions++;
+        if (best - chosen > TOLERANCE)
+          worse++;
+        regret += best - chosen;
+      }
+      int[] legal = new int[State.MAX_ACTIONS];
+      int n = current.legalActions(legal, c);
+      return Action.fromCode(legal[rand.nextInt(n)]);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import agents.MCTSAgent;
+import agents.SearchBudget;
+import loveletter.Action;
+import loveletter.IllegalActionException;
+
+/**
+ * Benchmarks of one decision by the search agent, over positions part way
+ * through a four player round, for fixed budgets of iterations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AgentBench {
+
+  @Param({ "200", "2000", "20000" })
+  public int iterations;
+
+  private Position[] positions;
+  private MCTSAgent[] agents;
+  private int next;
+
+  @Setup
+  public void setup() throws IllegalActionException {
+    positions = Position.find(new SplittableRandom(42), 16, 4, null);
+    agents = new MCTSAgent[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      loveletter.State state = positions[i].state;
+      agents[i] = new MCTSAgent(SearchBudget.iterations(iterations));
+      agents[i].newRound(state.playerState(state.nextPlayer()));
+    }
+  }
+
+  /** Chooses an action with MCTSAgent.playCard. **/
+  @Benchmark
+  public Action mctsPlayCard() {
+    int i = next;
+    next = (next + 1) % positions.length;
+    return agents[i].playCard(positions[i].drawn);
+  }
+}
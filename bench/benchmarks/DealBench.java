@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import agents.PackedState;
+import loveletter.Card;
+
+/**
+ * Benchmarks of dealing a shuffled deck.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DealBench {
+
+  private SplittableRandom rand = new SplittableRandom(42);
+  private Card[] deck = new Card[16];
+  private PackedState packed = new PackedState(4);
+
+  /** Deals into a new array. **/
+  @Benchmark
+  public Card[] deal() {
+    return Card.deal(rand);
+  }
+
+  /** Deals into a reused array. **/
+  @Benchmark
+  public Card[] dealInto() {
+    return Card.deal(deck, rand);
+  }
+
+  /** Deals a packed state, as searches do for each determinization. **/
+  @Benchmark
+  public PackedState dealPacked() {
+    packed.deal(rand);
+    return packed;
+  }
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import agents.KnowledgeAgent;
+import agents.MCTSAgent;
+import agents.RandomAgent;
+import loveletter.Agent;
+import loveletter.LoveLetter;
+
+/**
+ * Benchmarks of whole four player games played silently, for a few lineups.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBench {
+
+  /** random: four random agents, knowledge: one knowledge agent and three random agents, mcts: one search agent and three random agents **/
+  @Param({ "random", "knowledge", "mcts" })
+  public String lineup;
+
+  private LoveLetter engine;
+  private Agent[] agents;
+
+  @Setup
+  public void setup() {
+    engine = new LoveLetter(42, null);
+    agents = new Agent[] { new RandomAgent(), new RandomAgent(), new RandomAgent(), new RandomAgent() };
+    if (lineup.equals("knowledge"))
+      agents[0] = new KnowledgeAgent();
+    else if (lineup.equals("mcts"))
+      agents[0] = new MCTSAgent();
+  }
+
+  /** Plays a game with LoveLetter.playGame. **/
+  @Benchmark
+  public int[] playGame() {
+    return engine.playGame(agents);
+  }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import agents.MyRandomAgent;
+import agents.MyState;
+import agents.PackedState;
+import agents.RandomAgent;
+import loveletter.Agent;
+import loveletter.Card;
+import loveletter.IllegalActionException;
+
+/**
+ * Benchmarks of building determinized states for a player on their first turn
+ * of a four player round, with MyState, and with PackedState for comparison.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MyStateBench {
+
+  private SplittableRandom rand = new SplittableRandom(42);
+  private MyRandomAgent[] agents = { new MyRandomAgent(), new MyRandomAgent(), new MyRandomAgent(), new MyRandomAgent() };
+  private loveletter.State view;
+  private Card[] unseen;
+  private Card drawn;
+  private Card hand;
+  private int top;
+  private boolean[] eliminated = new boolean[4];
+  private Card[][] discards = new Card[4][16];
+  private boolean[] handmaid = new boolean[4];
+  private MyState state;
+  private PackedState packed = new PackedState(4);
+
+  @Setup
+  public void setup() throws IllegalActionException {
+    Agent[] players = { new RandomAgent(), new RandomAgent(), new RandomAgent(), new RandomAgent() };
+    loveletter.State game = new loveletter.State(rand, players);
+    view = game.playerState(0);
+    drawn = game.drawCard();
+    unseen = view.unseenCards();
+    hand = view.getCard(0);
+    top = 16 - view.deckSize();
+    state = newState();
+  }
+
+  /** Builds a determinized state with the MyState constructor. **/
+  @Benchmark
+  public MyState newState() {
+    return new MyState(rand, agents, unseen, drawn, hand, 0, eliminated, top, discards, handmaid);
+  }
+
+  /** Redeals a determinized state with MyState.newRound. **/
+  @Benchmark
+  public MyState newRound() throws IllegalActionException {
+    state.newRound(unseen, drawn, hand, 0, eliminated, top, discards, handmaid);
+    return state;
+  }
+
+  /** Copies a MyState, as searches do for each node. **/
+  @Benchmark
+  public MyState copy() {
+    return new MyState(state);
+  }
+
+  /** Redeals a determinized PackedState, the state searches now use. **/
+  @Benchmark
+  public PackedState determinizePacked() {
+    packed.determinize(view, drawn, rand);
+    return packed;
+  }
+}
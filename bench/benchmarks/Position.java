@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.util.random.RandomGenerator;
+
+import agents.RandomAgent;
+import loveletter.*;
+
+/**
+ * A game part way through a round, just after the player to move has drawn a
+ * card, together with a legal action for that player. Positions are found by
+ * playing random agents, so benchmarks can replay realistic moves.
+ */
+final class Position {
+
+  final State state; // the game engine's state
+  final Agent[] agents;
+  final Card drawn; // the card the player to move has drawn
+  final Action action; // a legal action for the player to move
+  final long record; // the undo record of the action, restoring the state after it is played
+
+  private Position(State state, Agent[] agents, Card drawn, Action action, long record) {
+    this.state = state;
+    this.agents = agents;
+    this.drawn = drawn;
+    this.action = action;
+    this.record = record;
+  }
+
+  /**
+   * Plays random agents until the player to move may play the given card, and
+   * picks one of the actions playing it at random.
+   *
+   * @param rand the random number generator for the deals and the choices
+   * @param num  the number of players
+   * @param card the card to be played, or null for any card
+   * @return the position
+   **/
+  static Position find(RandomGenerator rand, int num, Card card) {
+    Agent[] agents = new Agent[num];
+    for (int i = 0; i < num; i++)
+      agents[i] = new RandomAgent();
+    int[] actions = new int[State.MAX_ACTIONS];
+    try {
+      while (true) {
+        State state = new State(rand, agents);
+        State[] views = new State[num];
+        for (int i = 0; i < num; i++) {
+          views[i] = state.playerState(i);
+          agents[i].newRound(views[i]);
+        }
+        while (!state.roundOver()) {
+          Card drawn = state.drawCard();
+          int n = state.legalActions(actions, drawn);
+          int matching = 0;
+          for (int i = 0; i < n; i++)
+            if (card == null || Action.cardOf(actions[i]) == card)
+              actions[matching++] = actions[i];
+          if (matching > 0 && rand.nextInt(4) == 0) {
+            Action act = Action.fromCode(actions[rand.nextInt(matching)]);
+            long record = state.apply(act, drawn);
+            state.undo(record);
+            return new Position(state, agents, drawn, act, record);
+          }
+          Action act = agents[state.nextPlayer()].playCard(drawn);
+          state.update(act, drawn);
+          for (int i = 0; i < num; i++)
+            agents[i].see(act, views[i]);
+        }
+      }
+    } catch (IllegalActionException e) {
+      throw new IllegalStateException("Random agent played an illegal action", e);
+    }
+  }
+
+  /**
+   * Finds several positions, for benchmarks to cycle through so no single deal
+   * dominates.
+   *
+   * @param rand  the random number generator for the deals and the choices
+   * @param count the number of positions
+   * @param num   the number of players
+   * @param card  the card to be played, or null for any card
+   * @return the positions
+   **/
+  static Position[] find(RandomGenerator rand, int count, int num, Card card) {
+    Position[] positions = new Position[count];
+    for (int i = 0; i < count; i++)
+      positions[i] = find(rand, num, card);
+    return positions;
+  }
+}
@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import agents.PackedState;
+import agents.RolloutBatch;
+import agents.RolloutKernel;
+
+/**
+ * Benchmarks of playing four player rounds out from the deal, one at a time
+ * with RolloutKernel.outcome and in lockstep with a RolloutBatch of each size,
+ * so the scores of both are rollouts per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RolloutBench {
+
+  // the rounds played out by each call of a benchmark
+  private static final int ROUNDS = 256;
+
+  @Param({ "1", "16", "256" })
+  public int batchSize;
+
+  private PackedState[] starts;
+  private RolloutKernel kernel;
+  private RolloutBatch batch;
+
+  @Setup
+  public void setup() {
+    SplittableRandom rand = new SplittableRandom(42);
+    starts = new PackedState[ROUNDS];
+    for (int i = 0; i < ROUNDS; i++) {
+      starts[i] = new PackedState(4);
+      starts[i].deal(rand);
+    }
+    kernel = new RolloutKernel(new SplittableRandom(7));
+    batch = new RolloutBatch(batchSize, kernel);
+  }
+
+  /** Plays each round out on its own, as the search does by default. **/
+  @Benchmark
+  @OperationsPerInvocation(ROUNDS)
+  public int single() {
+    int wins = 0;
+    for (int i = 0; i < ROUNDS; i++)
+      wins += kernel.outcome(starts[i], i & 3);
+    return wins;
+  }
+
+  /** Plays the rounds out in batches of batchSize. **/
+  @Benchmark
+  @OperationsPerInvocation(ROUNDS)
+  public int batched() {
+    int wins = 0;
+    for (int first = 0; first < ROUNDS; first += batchSize) {
+      batch.clear();
+      for (int i = first; i < first + batchSize && i < ROUNDS; i++)
+        batch.add(starts[i], i & 3);
+      batch.run();
+      for (int i = 0; i < batch.size(); i++)
+        wins += batch.outcome(i);
+    }
+    return wins;
+  }
+}
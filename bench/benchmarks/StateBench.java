@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import loveletter.Card;
+import loveletter.IllegalActionException;
+
+/**
+ * Benchmarks of playing one action on the game engine's state, for each type
+ * of card. Each invocation plays the action and undoes it, so the state is
+ * ready for the next invocation, and the time includes the undo.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StateBench {
+
+  @Param({ "GUARD", "PRIEST", "BARON", "HANDMAID", "PRINCE", "KING", "COUNTESS", "PRINCESS" })
+  public Card card;
+
+  private Position[] positions;
+  private int next;
+
+  @Setup
+  public void setup() {
+    positions = Position.find(new SplittableRandom(42), 64, 4, card);
+  }
+
+  private Position next() {
+    Position p = positions[next];
+    next = (next + 1) % positions.length;
+    return p;
+  }
+
+  /** Plays an action with update, which also describes it. **/
+  @Benchmark
+  public String update() throws IllegalActionException {
+    Position p = next();
+    String description = p.state.update(p.action, p.drawn);
+    p.state.undo(p.record);
+    return description;
+  }
+
+  /** Plays an action with execute, which only returns the outcome code. **/
+  @Benchmark
+  public int execute() throws IllegalActionException {
+    Position p = next();
+    int outcome = p.state.execute(p.action, p.drawn);
+    p.state.undo(p.record);
+    return outcome;
+  }
+
+  /** Lists the legal actions of the player to move. **/
+  @Benchmark
+  public int legalActions(ActionBuffer buffer) {
+    Position p = next();
+    return p.state.legalActions(buffer.actions, p.drawn);
+  }
+
+  /** A buffer for the legal actions, shared by the invocations of a thread. **/
+  @State(Scope.Thread)
+  public static class ActionBuffer {
+    int[] actions = new int[loveletter.State.MAX_ACTIONS];
+  }
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import loveletter.Card;
+import loveletter.IllegalActionException;
+
+/**
+ * Benchmarks of the queries agents make of their view of the game, and of
+ * producing the views, over positions part way through a round.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ViewBench {
+
+  private Position[] positions;
+  private loveletter.State[] views;
+  private int[] counts = new int[8];
+  private int next;
+
+  @Setup
+  public void setup() throws IllegalActionException {
+    positions = Position.find(new SplittableRandom(42), 64, 4, null);
+    views = new loveletter.State[positions.length];
+    for (int i = 0; i < positions.length; i++)
+      views[i] = positions[i].state.playerState(positions[i].state.nextPlayer());
+  }
+
+  private int next() {
+    int i = next;
+    next = (next + 1) % positions.length;
+    return i;
+  }
+
+  /** Produces a player's view of the game engine's state. **/
+  @Benchmark
+  public loveletter.State playerState() throws IllegalActionException {
+    loveletter.State state = positions[next()].state;
+    return state.playerState(state.nextPlayer());
+  }
+
+  /** Lists the unseen cards in a new array. **/
+  @Benchmark
+  public Card[] unseenCards() {
+    return views[next()].unseenCards();
+  }
+
+  /** Counts the unseen cards into a reused array. **/
+  @Benchmark
+  public int[] unseenCounts() {
+    return views[next()].unseenCounts(counts);
+  }
+
+  /** Tests whether the round is over and finds its winner. **/
+  @Benchmark
+  public int roundWinner() {
+    return views[next()].roundWinner();
+  }
+}
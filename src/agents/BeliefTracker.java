@@ -0,0 +1,190 @@
+package agents;
+
+import java.util.random.RandomGenerator;
+
+import loveletter.*;
+
+/**
+ * A player's beliefs about the card held by each other player, kept as a
+ * probability distribution over the eight cards for each of them. An opponent
+ * whose card the player has seen, or who is known to hold the same card as one
+ * seen, holds it for certain. Any other opponent may hold any copy of a card
+ * whose place the player does not know, except the cards ruled out by the
+ * Evidence of the round, in proportion to the number of such copies. Each
+ * opponent's distribution is a marginal: the cards of different opponents are
+ * treated as independent.
+ *
+ * The beliefs are updated from each action seen and each card drawn, from the
+ * unseen counts the State keeps up to date, without scanning the cards of the
+ * round. Reading or sampling a distribution takes constant time and creates no
+ * objects.
+ **/
+public class BeliefTracker {
+
+  private static final Card[] CARDS = Card.values();
+
+  private final Evidence evidence = new Evidence();
+  private State view;
+  private int me;
+  private int num;
+  private final int[] hidden = new int[CARDS.length]; // the copies of each card in the deck or a hand not known to the player
+  private Card[] known = new Card[0]; // the card each player is known to hold, or null
+  private int[][] weight = new int[0][]; // for each opponent, the weight of each card
+  private int[] total = new int[0]; // for each opponent, the sum of their weights
+
+  /**
+   * Starts a new round, forgetting everything learned in the last one
+   *
+   * @param start the player's state at the start of the round
+   **/
+  public void reset(State start) {
+    view = start;
+    me = start.getPlayerIndex();
+    num = start.numPlayers();
+    if (known.length != num) {
+      known = new Card[num];
+      weight = new int[num][CARDS.length];
+      total = new int[num];
+    }
+    evidence.reset(num, me);
+    update();
+  }
+
+  /**
+   * Updates the beliefs with an action
+   *
+   * @param act     the action performed
+   * @param results the player's state after the action
+   **/
+  public void observe(Action act, State results) {
+    view = results;
+    evidence.observe(act, results);
+    update();
+  }
+
+  /**
+   * Updates the beliefs with a card the player has drawn, which no opponent can
+   * hold
+   *
+   * @param c the card drawn
+   **/
+  public void drew(Card c) {
+    hidden[c.ordinal()]--;
+    weigh();
+  }
+
+  // recomputes the known cards and hidden counts, then the weights
+  private void update() {
+    view.unseenCounts(hidden);
+    for (int p = 0; p < num; p++)
+      known[p] = view.eliminated(p) ? null : view.getCard(p);
+    for (int p = 0; p < num; p++) {
+      int q = evidence.partner(p);
+      if (known[p] == null && q >= 0 && known[q] != null && !view.eliminated(p))
+        known[p] = known[q];// a Baron tie with a card we know
+    }
+    for (int p = 0; p < num; p++)
+      if (known[p] != null)
+        hidden[known[p].ordinal()]--;
+    weigh();
+  }
+
+  // recomputes the weights of each opponent from the hidden counts
+  private void weigh() {
+    for (int p = 0; p < num; p++) {
+      int[] w = weight[p];
+      int sum = 0;
+      if (p == me || view.eliminated(p)) {
+        java.util.Arrays.fill(w, 0);
+      } else if (known[p] != null) {
+        java.util.Arrays.fill(w, 0);
+        w[known[p].ordinal()] = sum = 1;
+      } else {
+        for (int c = 0; c < w.length; c++) {
+          w[c] = evidence.allows(p, c + 1) ? Math.max(0, hidden[c]) : 0;
+          sum += w[c];
+        }
+        if (sum == 0) {// the evidence contradicts itself, so ignore it
+          for (int c = 0; c < w.length; c++) {
+            w[c] = Math.max(0, hidden[c]);
+            sum += w[c];
+          }
+        }
+      }
+      total[p] = sum;
+    }
+  }
+
+  /**
+   * Gives the probability an opponent holds a card
+   *
+   * @param player the opponent
+   * @param c      the card
+   * @return the probability, 0 for the player themselves or an eliminated player
+   **/
+  public double probability(int player, Card c) {
+    return total[player] == 0 ? 0 : (double) weight[player][c.ordinal()] / total[player];
+  }
+
+  /**
+   * Draws a card an opponent might hold, with the probability they hold it
+   *
+   * @param player the opponent
+   * @param rand   the random number generator
+   * @return the card, or null for the player themselves or an eliminated player
+   **/
+  public Card sample(int player, RandomGenerator rand) {
+    if (total[player] == 0)
+      return null;
+    int r = rand.nextInt(total[player]);
+    int[] w = weight[player];
+    int c = 0;
+    while (r >= w[c])
+      r -= w[c++];
+    return CARDS[c];
+  }
+
+  /**
+   * Gives the best guess of a Guard against an opponent, the card other than the
+   * Guard they most likely hold, the higher card on a tie
+   *
+   * @param player the opponent
+   * @return the card
+   **/
+  public Card bestGuess(int player) {
+    int[] w = weight[player];
+    int best = CARDS.length - 1;
+    for (int c = CARDS.length - 2; c > 0; c--)
+      if (w[c] > w[best])
+        best = c;
+    return CARDS[best];
+  }
+
+  /**
+   * Gives the card a player is known to hold, having been seen or inferred
+   *
+   * @param player the player
+   * @return the card, or null if it is not known or the player is eliminated
+   **/
+  public Card known(int player) {
+    return known[player];
+  }
+
+  /**
+   * Counts the copies of each card whose place is not known, being in the deck
+   * or the hand of an opponent whose card is not known
+   *
+   * @param counts an array of at least 8 elements to fill, indexed by card
+   *               ordinal
+   * @return the counts
+   **/
+  public int[] hiddenCounts(int[] counts) {
+    System.arraycopy(hidden, 0, counts, 0, hidden.length);
+    return counts;
+  }
+
+  /** @return the evidence of the round, which the caller must not change **/
+  public Evidence evidence() {
+    return evidence;
+  }
+}
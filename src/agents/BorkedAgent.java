@@ -1,6 +1,7 @@
 package agents;
 import loveletter.*;
 import java.util.Random;
+import java.util.random.RandomGenerator;
 
 /**
  * An interface for representing an agent in the game Love Letter
@@ -8,7 +9,7 @@ import java.util.Random;
  * */
 public class BorkedAgent implements Agent{
 
-  private Random rand;
+  private RandomGenerator rand;
   private State current;
   private int myIndex;
 
@@ -17,6 +18,14 @@ public class BorkedAgent implements Agent{
     rand  = new Random();
   }
 
+  /**
+   * Sets the random number generator the agent draws from
+   * @param random the generator, used only by this agent
+   **/
+  public void setRandom(RandomGenerator random){
+    rand = random;
+  }
+
   /**
    * Reports the agents name
    * */
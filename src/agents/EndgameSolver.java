@@ -0,0 +1,319 @@
+package agents;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.BooleanSupplier;
+import java.util.random.RandomGenerator;
+
+import loveletter.*;
+
+/**
+ * Solves the end of a round exactly, for positions with few cards left in the
+ * deck. The round is searched to the end by expectimax: every card that may be
+ * drawn next, from the draw of each turn or the draw forced by a Prince, is a
+ * chance event weighted by its copies left in the deck, and every player to
+ * move makes the move that gives them the best chance of winning the round,
+ * knowing every hand but not the order of the deck. Positions are remembered,
+ * so a position reached by more than one line of play, or dealt in more than
+ * one world, is solved once.
+ *
+ * The solver may evaluate a position directly, or choose a player's move from
+ * their view of the round. The hands the player does not know are dealt in
+ * every way consistent with their beliefs, each weighted by its probability,
+ * and each move is scored by its chance of winning averaged over them. The
+ * players other than the one choosing are solved as if they could see every
+ * hand, so the score of a move is exact for the deals, and a bound on the
+ * player's real chances.
+ *
+ * The number of positions grows quickly with the deck, so the solver is meant
+ * for the last few cards. A limit may be set on how long it solves, for an
+ * agent with a deadline; a call that runs out of time, or is stopped, gives up
+ * without an answer, keeping the positions it did solve. A solver is not thread
+ * safe, though the stop flag it is given may be set from any thread.
+ **/
+public class EndgameSolver {
+
+  // the most positions remembered before the memory is cleared
+  private static final int MAX_POSITIONS = 1 << 18;
+  // the most cards drawn in a round after the hands are dealt
+  private static final int MAX_DEPTH = 16;
+  // the positions searched between looks at the clock and the stop flag
+  private static final int CHECK_INTERVAL = 256;
+
+  private final RandomGenerator rand = new SplittableRandom(); // orders decks whose order is never read
+  private final WorldScheduler worlds = new WorldScheduler();
+  private PackedState scratch = new PackedState(2);
+
+  // the positions solved, by open addressing on the two words of their keys,
+  // with the chance of each player winning in four values per position
+  private long[] keys = new long[0];
+  private long[] rests = new long[0];
+  private double[] values = new double[0];
+  private int positions;
+
+  // the buffers of each depth of the search
+  private final int[][] actions = new int[MAX_DEPTH + 1][State.MAX_ACTIONS];
+  private final int[][] counts = new int[MAX_DEPTH + 1][Card.values().length];
+  private final double[][] best = new double[MAX_DEPTH + 1][4];
+  private final double[][] child = new double[MAX_DEPTH + 1][4];
+  private final double[][] chance = new double[MAX_DEPTH + 1][4];
+  private final double[] root = new double[4];
+
+  private long deadline = Long.MAX_VALUE; // when to give up, as a System.nanoTime value
+  private BooleanSupplier stopped; // tells the solver to give up, or null
+  private int untilCheck; // the positions to search before the next look at the limit
+  private boolean gaveUp; // whether the current call has given up
+
+  /** Constructs a solver remembering no positions **/
+  public EndgameSolver() {
+    clear();
+  }
+
+  /** Forgets every position solved **/
+  public void clear() {
+    if (keys.length != 1 << 12) {
+      keys = new long[1 << 12];
+      rests = new long[1 << 12];
+      values = new double[4 << 12];
+    } else {
+      Arrays.fill(keys, 0);
+    }
+    positions = 0;
+  }
+
+  /** @return the number of positions remembered **/
+  public int positions() {
+    return positions;
+  }
+
+  /**
+   * Limits how long each later call of value, evaluate or solve may take. A call
+   * that finds the deadline passed, or the stop flag set, gives up.
+   *
+   * @param deadline the deadline as a System.nanoTime value, or Long.MAX_VALUE
+   *                 for no deadline
+   * @param stopped  tested as the solver runs, giving up once true, or null
+   *                 never to stop
+   **/
+  public void setLimit(long deadline, BooleanSupplier stopped) {
+    this.deadline = deadline;
+    this.stopped = stopped;
+  }
+
+  /**
+   * Gives the chance a player wins the round from a position, where the order of
+   * the deck left is not known to any player
+   *
+   * @param s      the position, with the next player about to draw, which is
+   *               unchanged
+   * @param player the player
+   * @return the chance the player wins the round, or NaN if the solver gave up
+   **/
+  public double value(PackedState s, int player) {
+    begin();
+    scratch.copyFrom(s);
+    search(scratch, root, 0);
+    return gaveUp ? Double.NaN : root[player];
+  }
+
+  /**
+   * Scores each move of a player from their view of the round, as the chance
+   * the move wins the round averaged over the deals consistent with the
+   * player's beliefs
+   *
+   * @param view    the player's state
+   * @param drawn   the card the player has just drawn, which the beliefs must
+   *                have been told of
+   * @param beliefs the beliefs of the player
+   * @param moves   the buffer to fill with the moves, with room for
+   *                State.MAX_ACTIONS actions
+   * @param scores  the buffer to fill with the score of each move, as long as
+   *                moves
+   * @return the number of moves, found as RolloutKernel.moves does, or -1 if
+   *         the solver gave up
+   **/
+  public int evaluate(State view, Card drawn, BeliefTracker beliefs, int[] moves, double[] scores) {
+    begin();
+    int me = view.getPlayerIndex();
+    if (scratch.numPlayers() != view.numPlayers())
+      scratch = new PackedState(view.numPlayers());
+    PackedState s = scratch;
+    worlds.planHands(view, beliefs);
+    worlds.deal(0, view, drawn, beliefs, s, rand);
+    int n = RolloutKernel.moves(s, drawn, moves);
+    Arrays.fill(scores, 0, n, 0);
+    for (int w = 0; w < worlds.size() && !gaveUp; w++) {
+      worlds.deal(w, view, drawn, beliefs, s, rand);
+      for (int i = 0; i < n; i++) {
+        afterMove(s, moves[i], drawn, root, 0);
+        scores[i] += worlds.weight(w) * root[me];
+      }
+    }
+    return gaveUp ? -1 : n;
+  }
+
+  /**
+   * Chooses the move of a player with the best score from evaluate, the first
+   * such move on a tie
+   *
+   * @param view    the player's state
+   * @param drawn   the card the player has just drawn, which the beliefs must
+   *                have been told of
+   * @param beliefs the beliefs of the player
+   * @return the move, or null if the solver gave up
+   **/
+  public Action solve(State view, Card drawn, BeliefTracker beliefs) {
+    int[] moves = actions[MAX_DEPTH];
+    double[] scores = new double[moves.length];
+    int n = evaluate(view, drawn, beliefs, moves, scores);
+    if (n < 0)
+      return null;
+    int choice = 0;
+    for (int i = 1; i < n; i++)
+      if (scores[i] > scores[choice])
+        choice = i;
+    return Action.fromCode(moves[choice]);
+  }
+
+  // starts a call, looking at the limit before the first position
+  private void begin() {
+    gaveUp = false;
+    untilCheck = 1;
+  }
+
+  // whether the deadline has passed or the solver has been stopped, looking
+  // only every few positions
+  private boolean outOfTime() {
+    if (--untilCheck > 0)
+      return false;
+    untilCheck = CHECK_INTERVAL;
+    gaveUp = (stopped != null && stopped.getAsBoolean())
+        || (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0);
+    return gaveUp;
+  }
+
+  // the chance of each player winning from a position with the next player
+  // about to draw, into out, the position being restored before returning; if
+  // the solver gives up, out is left incomplete and nothing is remembered
+  private void search(PackedState s, double[] out, int depth) {
+    int num = s.numPlayers();
+    if (s.roundOver()) {
+      Arrays.fill(out, 0);
+      out[s.roundWinner()] = 1;
+      return;
+    }
+    long key = s.positionKey();
+    long rest = s.positionRest();
+    int slot = find(key, rest);
+    if (keys[slot] == key) {
+      System.arraycopy(values, slot << 2, out, 0, 4);
+      return;
+    }
+
+    if (gaveUp || outOfTime())
+      return;
+    Arrays.fill(out, 0);
+    int[] left = counts[depth];
+    int size = s.remaining(left);
+    long record = s.mark();
+    for (int c = 0; c < left.length && !gaveUp; c++) {
+      if (left[c] == 0)
+        continue;
+      s.raise(Card.values()[c]);
+      Card drawn = s.drawCard();
+      int player = s.nextPlayer();
+      int[] moves = actions[depth];
+      int n = RolloutKernel.moves(s, drawn, moves);
+      double[] b = best[depth];
+      for (int i = 0; i < n; i++) {
+        afterMove(s, moves[i], drawn, child[depth], depth + 1);
+        if (i == 0 || child[depth][player] > b[player])
+          System.arraycopy(child[depth], 0, b, 0, num);
+      }
+      for (int p = 0; p < num; p++)
+        out[p] += (double) left[c] / size * b[p];
+      s.undo(record);
+    }
+    if (!gaveUp)
+      store(key, rest, out);
+  }
+
+  // the chance of each player winning once a move is made, into out, averaged
+  // over the card a Prince forces the target to draw; the position is restored
+  // before returning
+  private void afterMove(PackedState s, int move, Card drawn, double[] out, int depth) {
+    long record = s.mark();
+    if (Action.cardOf(move) != Card.PRINCE) {
+      s.play(move, drawn);
+      search(s, out, depth);
+      s.undo(record);
+      return;
+    }
+    int num = s.numPlayers();
+    Arrays.fill(out, 0);
+    int[] left = counts[depth];
+    int size = s.remaining(left);
+    for (int c = 0; c < left.length && !gaveUp; c++) {
+      if (left[c] == 0)
+        continue;
+      double weight = (double) left[c] / size;
+      s.raise(Card.values()[c]);
+      s.play(move, drawn);
+      search(s, chance[depth], depth);
+      for (int p = 0; p < num; p++)
+        out[p] += weight * chance[depth][p];
+      s.undo(record);
+      s.remaining(left);// the search below reuses the buffer
+    }
+  }
+
+  // finds the slot of a position, or the empty slot it belongs in
+  private int find(long key, long rest) {
+    int mask = keys.length - 1;
+    int slot = (int) mix(key * 31 + rest) & mask;
+    while (keys[slot] != 0 && (keys[slot] != key || rests[slot] != rest))
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  // remembers the value of a position, making room as needed
+  private void store(long key, long rest, double[] value) {
+    if (positions >= MAX_POSITIONS)
+      clear();
+    if (positions * 2 >= keys.length)
+      grow();
+    int slot = find(key, rest);
+    keys[slot] = key;
+    rests[slot] = rest;
+    System.arraycopy(value, 0, values, slot << 2, 4);
+    positions++;
+  }
+
+  // doubles the table, placing every position again
+  private void grow() {
+    long[] oldKeys = keys;
+    long[] oldRests = rests;
+    double[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    rests = new long[oldKeys.length * 2];
+    values = new double[oldValues.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == 0)
+        continue;
+      int slot = find(oldKeys[i], oldRests[i]);
+      keys[slot] = oldKeys[i];
+      rests[slot] = oldRests[i];
+      System.arraycopy(oldValues, i << 2, values, slot << 2, 4);
+    }
+  }
+
+  // spreads the bits of a key over the word, a finalizer from MurmurHash3
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb53a87ce4cd9L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
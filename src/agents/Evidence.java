@@ -0,0 +1,184 @@
+package agents;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import loveletter.*;
+
+/**
+ * What a player has learned about the hidden hands of the other players beyond
+ * what their State shows. The State only reveals cards the player has seen, but
+ * the actions of a round also rule cards out:
+ *
+ * <ul>
+ * <li>a Guard guess that fails shows the target does not hold the guessed
+ * card,</li>
+ * <li>a Baron comparison that eliminates one player shows the other holds a
+ * higher card than the one discarded,</li>
+ * <li>a Baron comparison that eliminates no one shows both players hold the
+ * same card.</li>
+ * </ul>
+ *
+ * Evidence about a player holds until their hand changes. A player taking a turn
+ * may keep either card, and a Prince replaces the target's hand, so either
+ * clears it. A King swap moves it with the cards.
+ *
+ * The evidence is updated from each action seen, and read by determinize to
+ * deal only worlds consistent with it, and by BeliefTracker.
+ **/
+public class Evidence {
+
+  private int me; // the player whose evidence this is
+  private int[] excluded = new int[0]; // for each player, bit c is set if they cannot hold the card of value c
+  private int[] equal = new int[0]; // for each player, the player known to hold the same card, or -1
+
+  /**
+   * Forgets all evidence, at the start of a round
+   *
+   * @param numPlayers the number of players
+   * @param observer   the player whose evidence this is
+   **/
+  public void reset(int numPlayers, int observer) {
+    me = observer;
+    if (excluded.length != numPlayers) {
+      excluded = new int[numPlayers];
+      equal = new int[numPlayers];
+    }
+    Arrays.fill(excluded, 0);
+    Arrays.fill(equal, -1);
+  }
+
+  /**
+   * Updates the evidence with an action
+   *
+   * @param act     the action performed
+   * @param results the observer's state after the action
+   **/
+  public void observe(Action act, State results) {
+    int a = act.player();
+    int t = act.target();
+    forget(a);// the actor may have kept either of their cards
+    if (t < 0 || t == a || results.handmaid(t))
+      return;// the action had no effect on another player
+    switch (act.card()) {
+      case GUARD:
+        if (!results.eliminated(t))
+          excluded[t] |= 1 << act.guess().value();
+        break;
+      case BARON:
+        if (results.eliminated(t))
+          excluded[a] |= below(lastDiscard(results, t));
+        else if (results.eliminated(a))
+          excluded[t] |= below(lastDiscard(results, a));
+        else
+          pair(a, t);
+        break;
+      case PRINCE:
+        forget(t);
+        break;
+      case KING:
+        swap(a, t);
+        break;
+      default:
+    }
+  }
+
+  /**
+   * Tests whether a player may hold a card, given the evidence about them alone
+   *
+   * @param player the player
+   * @param value  the value of the card
+   * @return false if the evidence rules the card out
+   **/
+  public boolean allows(int player, int value) {
+    return (excluded[player] >>> value & 1) == 0;
+  }
+
+  /**
+   * Tests whether an assignment of cards to the players is consistent with all
+   * the evidence
+   *
+   * @param hands the value of the card held by each player, or 0 if they hold
+   *              none
+   * @return true if no evidence rules the assignment out
+   **/
+  public boolean consistent(int[] hands) {
+    for (int p = 0; p < excluded.length; p++) {
+      if (hands[p] == 0 || p == me)
+        continue;
+      if (!allows(p, hands[p]))
+        return false;
+      int q = equal[p];
+      if (q >= 0 && hands[q] != 0 && hands[q] != hands[p])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Gives the player known to hold the same card as another
+   *
+   * @param player the player
+   * @return the other player, or -1 if there is none
+   **/
+  public int partner(int player) {
+    return equal[player];
+  }
+
+  /** @return true if there is no evidence beyond what the State shows **/
+  public boolean isEmpty() {
+    for (int p = 0; p < excluded.length; p++)
+      if (excluded[p] != 0 || equal[p] >= 0)
+        return false;
+    return true;
+  }
+
+  // the mask of every card value up to and including the given one
+  private static int below(int value) {
+    return (2 << value) - 2;
+  }
+
+  // the value of the card a player discarded last
+  private static int lastDiscard(State s, int player) {
+    Iterator<Card> it = s.getDiscards(player);
+    return it.hasNext() ? it.next().value() : 0;
+  }
+
+  // forgets what is known of a player's hand
+  private void forget(int p) {
+    excluded[p] = 0;
+    if (equal[p] >= 0)
+      equal[equal[p]] = -1;
+    equal[p] = -1;
+  }
+
+  // records that two players hold the same card, which neither can hold a card
+  // ruled out for the other
+  private void pair(int p, int q) {
+    if (equal[p] >= 0)
+      equal[equal[p]] = -1;
+    if (equal[q] >= 0)
+      equal[equal[q]] = -1;
+    excluded[p] |= excluded[q];
+    excluded[q] = excluded[p];
+    equal[p] = q;
+    equal[q] = p;
+  }
+
+  // moves what is known of two players' hands with the cards they swap
+  private void swap(int p, int q) {
+    int tmp = excluded[p];
+    excluded[p] = excluded[q];
+    excluded[q] = tmp;
+    int ep = equal[p];
+    int eq = equal[q];
+    if (ep == q) // they held the same card, and still do
+      return;
+    equal[p] = eq;
+    equal[q] = ep;
+    if (eq >= 0)
+      equal[eq] = p;
+    if (ep >= 0)
+      equal[ep] = q;
+  }
+}
@@ -1,6 +1,7 @@
 package agents;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 import loveletter.*;
 
@@ -10,13 +11,33 @@ import loveletter.*;
  * */
 public class KnowledgeAgent implements Agent {
 
-  private Random rand;
+  private RandomGenerator rand;
   private State current;
   private int myIndex;
+  private int[] actions = new int[State.MAX_ACTIONS];//buffer for the legal actions each turn
+  private BeliefTracker beliefs = new BeliefTracker();//what we believe of the other hands, for guessing with the guard
+
+  private static final Log LOG = Log.get("knowledge");
 
   //0 place default constructor
   public KnowledgeAgent(){
-    rand  = new Random();
+    this(new SplittableRandom());
+  }
+
+  /**
+   * Constructs an agent making its random choices from the given generator
+   * @param rand the random number generator, used only by this agent
+   **/
+  public KnowledgeAgent(RandomGenerator rand){
+    this.rand = rand;
+  }
+
+  /**
+   * Sets the random number generator the agent makes its random choices from
+   * @param random the generator, used only by this agent
+   **/
+  public void setRandom(RandomGenerator random){
+    rand = random;
   }
 
   /**
@@ -32,6 +53,7 @@ public class KnowledgeAgent implements Agent {
   public void newRound(State start){
     current = start;
     myIndex = current.getPlayerIndex();
+    beliefs.reset(start);
   }
 
   /**
@@ -41,6 +63,7 @@ public class KnowledgeAgent implements Agent {
    * **/
   public void see(Action act, State results){
     current = results;
+    beliefs.observe(act, results);
   }
 
   /**
@@ -51,6 +74,7 @@ public class KnowledgeAgent implements Agent {
    * */
   public Action playCard(Card c) {
 
+    beliefs.drew(c);
     Card c1 = c;
     Card c2 = current.getCard(myIndex);
 
@@ -82,17 +106,14 @@ public class KnowledgeAgent implements Agent {
             eliminated[i] = false;
         }
     }
-    
-    Card[] unseen = current.unseenCards();
-    Card L = findMostLikelyCard(unseen);
 
-    Action act = heuristic(c1, c2, W, D, known, eliminated, L);
-    System.out.println(act);
+    Action act = heuristic(c1, c2, W, D, known, eliminated);
+    if(LOG.isEnabled(Log.Level.DEBUG)) LOG.log(Log.Level.DEBUG, String.valueOf(act));
 
     return act;
   }
 
-private Action heuristic(Card c1, Card c2, int W, int D, Card[] known, boolean[] eliminated, Card L) {
+private Action heuristic(Card c1, Card c2, int W, int D, Card[] known, boolean[] eliminated) {
     
     Action act = null;
 
@@ -191,12 +212,12 @@ private Action heuristic(Card c1, Card c2, int W, int D, Card[] known, boolean[]
     }
     else if(c1 == Card.GUARD || c2 == Card.GUARD){
         if(!eliminated[W]){
-            act = Action.playGuard(myIndex, W, L);
+            act = Action.playGuard(myIndex, W, beliefs.bestGuess(W));
         }
         else {
             for (int i = 0; i < eliminated.length; i++) {
                 if(!eliminated[i] && i != myIndex){
-                    act = Action.playGuard(myIndex, i, L);
+                    act = Action.playGuard(myIndex, i, beliefs.bestGuess(i));
                 }
             }
         }
@@ -226,12 +247,12 @@ private Action heuristic(Card c1, Card c2, int W, int D, Card[] known, boolean[]
         }
     }
     else{
-        System.out.println("Random card played");
+        if(LOG.isEnabled(Log.Level.DEBUG)) LOG.log(Log.Level.DEBUG, "Random card played");
         act = playRandomCard(c1);
     }
 
     } catch(IllegalActionException e){
-        System.out.println("Illegal move performed :" + act);
+        if(LOG.isEnabled(Log.Level.WARN)) LOG.log(Log.Level.WARN, "Illegal move performed :" + act);
         act = playRandomCard(c1);
     }
     
@@ -251,87 +272,10 @@ private Action heuristic(Card c1, Card c2, int W, int D, Card[] known, boolean[]
    * @throws IllegalActionException when the Action produced is not legal.
    */
   public Action playRandomCard(Card c) {
-    Action act = null;
-    Card play;
-    while (!current.legalAction(act, c)) {
-      if (rand.nextDouble() < 0.5)
-        play = c;
-      else
-        play = current.getCard(myIndex);
-      int target = rand.nextInt(current.numPlayers());
-      try {
-        switch (play) {
-        case GUARD:
-          act = Action.playGuard(myIndex, target, Card.values()[rand.nextInt(7) + 1]);
-          break;
-        case PRIEST:
-          act = Action.playPriest(myIndex, target);
-          break;
-        case BARON:
-          act = Action.playBaron(myIndex, target);
-          break;
-        case HANDMAID:
-          act = Action.playHandmaid(myIndex);
-          break;
-        case PRINCE:
-          act = Action.playPrince(myIndex, target);
-          break;
-        case KING:
-          act = Action.playKing(myIndex, target);
-          break;
-        case COUNTESS:
-          act = Action.playCountess(myIndex);
-          break;
-        default:
-          act = null;// never play princess
-        }
-      } catch (IllegalActionException e) {
-        /* do nothing */}
-    }
-    return act;
+    int n = current.legalActions(actions, c);
+    if (n > 1 && Action.cardOf(actions[n - 1]) == Card.PRINCESS)
+      n--;// never play princess
+    return Action.fromCode(actions[rand.nextInt(n)]);
   }
 
-  private Card findMostLikelyCard(Card[] unseen) {
-
-    if(unseen[0] == null){
-        return Card.PRINCESS;
-    }
-      
-    int max = 1;
-    int counter = 1;
-    Card c = unseen[0];
-    
-    Card maxCard = c;
-    
-    for(int i = 1; i < unseen.length; i++){
-        if(unseen[i] != c) {
-            if(counter > max){
-                max = counter;
-                maxCard = c;
-            }
-            c = unseen[i];
-        }
-        else{
-            counter++;
-        }    
-    }
-    
-    if(counter > max){
-        max = counter;
-        maxCard = c;
-    }
-    
-
-    return maxCard;
-
-  }
-
-
-
-
-
-
-
 }
-
-
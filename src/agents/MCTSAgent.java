@@ -1,7 +1,12 @@
 package agents;
 
-import java.util.Random;
-import java.io.*;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.random.RandomGenerator;
 import java.util.*;
 
 import loveletter.*;
@@ -10,15 +15,244 @@ import loveletter.*;
  * An interface for representing an agent in the game Love Letter All agent's
  * must have a 0 parameter constructor
  */
-public class MCTSAgent implements Agent {
+public class MCTSAgent implements AnytimeAgent {
 
-  private Random rand;
+  private RandomGenerator rand;
   private State current;
   private int myIndex;
+  private BeliefTracker beliefs = new BeliefTracker(); // what we believe of the other hands
+  private int[] actions = new int[State.MAX_ACTIONS]; // buffer for legal actions
+  private int[] choices = new int[State.MAX_ACTIONS]; // the actions at the root of the current decision
+  private int choiceCount; // the number of actions at the root
+  private PackedState scratch; // working state for expansions, walked with apply and undo
+  private PackedState dealt; // the world the determinized search is in
+  private PackedState rootWorld; // the world the actions at the root are found in
+  private RolloutKernel kernel; // plays the rollouts, sharing the random number generator
+  private RolloutBatch batch; // the rollouts of leaves waiting to be played together, or null to play each at once
+  private Node[] pending; // the leaf of each rollout in the batch
+  private volatile Action best; // the best action so far, for the engine to read when time runs out
+  private volatile boolean stopped; // set by the engine to end the search early
+  // held by playCard for the whole move, and taken by see and newRound, so a
+  // move the engine has abandoned ends before the next one is set up
+  private final Object searching = new Object();
+  // whether the search or the endgame solver should give up: when stopped, or
+  // as soon as the engine abandons the move and interrupts its thread
+  private final BooleanSupplier halted = () -> stopped || Thread.currentThread().isInterrupted();
+  private SearchBudget budget;
+  private long iterations; // iterations completed by the last search
+  private int threads = 1; // the number of threads searching each move
+  private boolean shared; // whether the threads search one shared tree rather than a tree each
+  private boolean informationSet; // whether to search one information set tree rather than determinized trees
+  private boolean stratified; // whether to deal the worlds of the determinized search from a schedule
+  private WorldScheduler planner = new WorldScheduler(); // plans the schedule of each decision
+  private WorldScheduler schedule; // the worlds of the current search, or null to deal each at random
+  private EndgameSolver solver = new EndgameSolver(); // plays the end of each round exactly
+  private int endgame = ENDGAME_DECK; // the most cards left in the deck for the solver to play
+  private NodeArena tree = new NodeArena(); // the information set tree, kept from the last decision
+  private NodeArena spare = new NodeArena(); // the arena the part of the tree still in use is copied to
+  private int treeRoot = NodeArena.NONE; // the root of the tree, advanced by the actions seen since the last decision
+  private MCTSAgent[] helpers = new MCTSAgent[0]; // agents searching alongside this one
+  private ExecutorService pool; // the threads the helpers search on
+
+  // the default budget, the 100 worlds of 20 iterations the search always used to run
+  private static final SearchBudget DEFAULT_BUDGET = SearchBudget.iterations(2000);
+  // the number of iterations searched in each determinized world
+  private static final int WORLD_ITERATIONS = 20;
+  // the most cards left in the deck for the solver to play, by default
+  private static final int ENDGAME_DECK = 3;
+  // the weight of the exploration term in the information set search
+  private static final double EXPLORATION = 0.7;
+
+  private static final Log LOG = Log.get("mcts");
 
   // 0 place default constructor
   public MCTSAgent() {
-    rand = new Random();
+    this(DEFAULT_BUDGET);
+  }
+
+  /**
+   * Constructs an agent that searches within the given budget for each move
+   * 
+   * @param budget the budget of each search
+   */
+  public MCTSAgent(SearchBudget budget) {
+    this(budget, new SplittableRandom());
+  }
+
+  /**
+   * Constructs an agent that searches within the given budget for each move,
+   * drawing from the given generator
+   * 
+   * @param budget the budget of each search
+   * @param rand   the random number generator, used only by this agent
+   */
+  public MCTSAgent(SearchBudget budget, RandomGenerator rand) {
+    this.budget = budget;
+    setRandom(rand);
+  }
+
+  /**
+   * Sets the random number generator the search draws from. The generators of
+   * the helper threads are split from it, in order, so a search with an
+   * iteration budget on a tree per thread plays the same from the same
+   * generator.
+   * 
+   * @param random the generator, used only by this agent
+   */
+  public void setRandom(RandomGenerator random) {
+    rand = random;
+    RolloutKernel.Policy policy = kernel == null ? RolloutKernel.Policy.RANDOM : kernel.getPolicy();
+    kernel = new RolloutKernel(rand);
+    kernel.setPolicy(policy);
+    if (batch != null)
+      batch = new RolloutBatch(batch.capacity(), kernel);
+    for (MCTSAgent h : helpers)
+      h.setRandom(split(rand));
+  }
+
+  // a generator for a helper, split from the given one
+  private static RandomGenerator split(RandomGenerator rand) {
+    if (rand instanceof RandomGenerator.SplittableGenerator)
+      return ((RandomGenerator.SplittableGenerator) rand).split();
+    return new SplittableRandom(rand.nextLong());
+  }
+
+  /**
+   * Sets the budget of each search
+   * 
+   * @param budget the budget of each search
+   */
+  public void setBudget(SearchBudget budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * Sets how the moves of each rollout are chosen
+   * 
+   * @param policy the policy of the rollouts
+   */
+  public void setRolloutPolicy(RolloutKernel.Policy policy) {
+    kernel.setPolicy(policy);
+  }
+
+  /**
+   * Sets how many leaves of the determinized search are rolled out together.
+   * With more than one, the search selects that many leaves, each counted as a
+   * virtual loss so the selections spread over the tree, then plays their
+   * rollouts in lockstep with a RolloutBatch and backs up all the results.
+   * 
+   * @param size the number of leaves in each batch, 1 to roll out each leaf as
+   *             it is found
+   */
+  public void setRolloutBatch(int size) {
+    if (size <= 1) {
+      batch = null;
+      pending = null;
+    } else if (batch == null || batch.capacity() != size) {
+      batch = new RolloutBatch(size, kernel);
+      pending = new Node[size];
+    }
+  }
+
+  /**
+   * Sets the number of threads searching each move. With more than one thread
+   * the search is root parallel: each thread searches its own tree over its own
+   * determinizations, with its own random number generator, split from this
+   * agent's, and its own scratch state, and the statistics of the root children
+   * are added together at the end. An
+   * iteration budget is shared between the threads, and a time budget applies to
+   * each of them. See setTreeParallel to search one shared tree instead.
+   * 
+   * @param threads the number of threads, at least 1
+   */
+  public void setThreads(int threads) {
+    threads = Math.max(1, threads);
+    if (threads == this.threads)
+      return;
+    if (pool != null)
+      pool.shutdown();
+    pool = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, r -> {
+      Thread t = new Thread(r, "mcts-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    helpers = new MCTSAgent[threads - 1];
+    for (int i = 0; i < helpers.length; i++)
+      helpers[i] = new MCTSAgent(budget, split(rand));
+    this.threads = threads;
+  }
+
+  /**
+   * Chooses between the two ways of searching with more than one thread. Root
+   * parallel search, the default, gives each thread a tree of its own. Tree
+   * parallel search has every thread search the same tree, each over its own
+   * determinizations. The statistics of the nodes are updated without locks, a
+   * node on a thread's path counts as a visit without a win until the rollout is
+   * scored, which steers the other threads to different paths, and only the
+   * first thread to claim a leaf expands it.
+   * 
+   * @param shared true to search one shared tree, false for a tree per thread
+   */
+  public void setTreeParallel(boolean shared) {
+    this.shared = shared;
+  }
+
+  /**
+   * Chooses information set search in place of the determinized search. The
+   * determinized search keeps concrete states in its nodes, and mixes the
+   * statistics of every world under a tree that only matches the latest one.
+   * Information set search keeps one tree whose nodes are keyed by the sequence
+   * of actions, samples a new world for every iteration, and only considers the
+   * children whose actions are legal in that world. It branches over every
+   * action, target and guess of every player, and always searches on the calling
+   * thread. The tree is kept from one decision to the next: each action seen
+   * moves its root to the child for that action, so the statistics of the part
+   * of the tree the round actually reached carry over, and the rest is dropped.
+   * 
+   * @param informationSet true for information set search
+   */
+  public void setInformationSet(boolean informationSet) {
+    this.informationSet = informationSet;
+  }
+
+  /**
+   * Chooses how the determinized search deals its worlds. By default each world
+   * is dealt independently at random. With a schedule, the worlds are planned
+   * for each decision by a WorldScheduler: every distinct world is searched once
+   * when there are few enough of them, and otherwise the worlds are stratified
+   * by the cards of the unknown hands, each world searched for a number of
+   * iterations in proportion to the probability it stands for.
+   * 
+   * @param stratified true to deal the worlds from a schedule
+   */
+  public void setStratified(boolean stratified) {
+    this.stratified = stratified;
+  }
+
+  /**
+   * Sets how late in a round the search gives way to an EndgameSolver. Once the
+   * deck holds no more than the given number of cards after this agent draws,
+   * every move is chosen by solving the rest of the round exactly over the deals
+   * consistent with what this agent believes, in place of a search. By default
+   * the solver plays once 3 cards are left. The solver keeps to the time of the
+   * budget and stops when the search would, playing the best action so far if
+   * it cannot finish.
+   * 
+   * @param deckSize the most cards left in the deck for the solver to play, 0
+   *                 never to use it
+   */
+  public void setEndgame(int deckSize) {
+    this.endgame = deckSize;
+  }
+
+  /**
+   * Reports how much work the last search did
+   * 
+   * @return the number of iterations the last call of playCard completed, on all
+   *         threads
+   */
+  public long getIterations() {
+    return iterations;
   }
 
   /**
@@ -34,8 +268,18 @@ public class MCTSAgent implements Agent {
    * @param start the starting state of the round
    **/
   public void newRound(State start) {
-    current = start;
-    myIndex = current.getPlayerIndex();
+    stop();// end any move the engine abandoned, and wait for it
+    synchronized (searching) {
+      current = start;
+      myIndex = current.getPlayerIndex();
+      scratch = new PackedState(current.numPlayers());
+      dealt = new PackedState(current.numPlayers());
+      rootWorld = new PackedState(current.numPlayers());
+      treeRoot = NodeArena.NONE;
+      beliefs.reset(current);
+      best = null;
+      stopped = false;
+    }
   }
 
   /**
@@ -45,7 +289,17 @@ public class MCTSAgent implements Agent {
    * @param results the state of play the agent is able to observe.
    **/
   public void see(Action act, State results) {
-    current = results;
+    stop();// end any move the engine abandoned, and wait for it
+    synchronized (searching) {
+      current = results;
+      beliefs.observe(act, results);
+      if (treeRoot != NodeArena.NONE)
+        treeRoot = tree.child(treeRoot, act.code());
+      // the next move starts afresh, before the engine asks for it, so a stop
+      // that comes before playCard is called still ends that move's search
+      best = null;
+      stopped = false;
+    }
   }
 
   /**
@@ -56,679 +310,585 @@ public class MCTSAgent implements Agent {
    * @throws IllegalActionException when the Action produced is not legal.
    */
   public Action playCard(Card c) {
-    Action act = null;
-    Card play;
-
-    MonteCarlo(c);
-
-    while (!current.legalAction(act, c)) {
-      if (rand.nextDouble() < 0.5)
-        play = c;
-      else
-        play = current.getCard(myIndex);
-      int target = rand.nextInt(current.numPlayers());
-      try {
-        switch (play) {
-        case GUARD:
-          act = Action.playGuard(myIndex, target, Card.values()[rand.nextInt(7) + 1]);
-          break;
-        case PRIEST:
-          act = Action.playPriest(myIndex, target);
-          break;
-        case BARON:
-          act = Action.playBaron(myIndex, target);
-          break;
-        case HANDMAID:
-          act = Action.playHandmaid(myIndex);
-          break;
-        case PRINCE:
-          act = Action.playPrince(myIndex, target);
-          break;
-        case KING:
-          act = Action.playKing(myIndex, target);
-          break;
-        case COUNTESS:
-          act = Action.playCountess(myIndex);
-          break;
-        default:
-          act = null;// never play princess
-        }
-      } catch (IllegalActionException e) {
-        /* do nothing */}
+    synchronized (searching) {
+      // a move the engine abandoned before it started changes nothing, as the
+      // next has been set up already
+      if (Thread.currentThread().isInterrupted())
+        return null;
+      beliefs.drew(c);
+      int n = current.legalActions(actions, c);
+      if (n > 1 && Action.cardOf(actions[n - 1]) == Card.PRINCESS)
+        n--;// never play princess
+      if (best == null)
+        best = Action.fromCode(actions[rand.nextInt(n)]);
+
+      return MonteCarlo(c);
     }
-    return act;
   }
 
-  public void testState(Card topCard) {
+  /**
+   * Gives the best action found so far by the current call of playCard
+   * 
+   * @return the best action so far, or null if playCard has not started since
+   *         the last action was seen
+   */
+  public Action bestAction() {
+    return best;
+  }
 
-    MyRandomAgent[] agents = { new MyRandomAgent(), new MyRandomAgent(), new MyRandomAgent(), new MyRandomAgent() };
-    Card[] remainingCards = current.unseenCards();
-    Card inHand = current.getCard(myIndex);
+  /**
+   * Ends the search of the current call of playCard after the current
+   * iteration, or if the call has not started yet, as soon as it starts
+   */
+  public void stop() {
+    stopped = true;
+    for (MCTSAgent h : helpers)
+      h.stopped = true;
+  }
 
-    boolean[] eliminated = new boolean[current.numPlayers()];
-    for (int i = 0; i < eliminated.length; i++) {
-      if (current.eliminated(i)) {
-        eliminated[i] = true;
-      }
+  /**
+   * Apply the Monti Carlo Algorithm in order to make the best move in the current
+   * position, until the budget runs out or the search is stopped. The best action
+   * so far is kept up to date as the search runs. Late in a round, set by
+   * setEndgame, the move is solved exactly instead. The root of the search has a
+   * child for every action worth considering, so the search chooses the target
+   * and guess as well as the card; if there is only one, it is played without a
+   * search.
+   * 
+   * @param c card picked up
+   * @return the action the agent should play given the position
+   */
+  public Action MonteCarlo(Card c) {
+
+    if (current.deckSize() <= endgame) {
+      solver.setLimit(budget.deadline(), halted);
+      Action solved = solver.solve(current, c, beliefs);
+      iterations = 0;
+      if (solved != null)
+        best = solved;
+      if (LOG.isEnabled(Log.Level.DEBUG))
+        LOG.log(Log.Level.DEBUG, (solved != null ? "Solved" : "Gave up on") + " the endgame, remembering "
+            + solver.positions() + " positions, playing " + best);
+      return best;
     }
 
-    int topIndex = 16 - current.deckSize();
-
-    Card[][] discards = new Card[agents.length][16];
-
-    // Iterator to traverse the list
-    int cntr = 0;
-    for (int j = 0; j < discards.length; j++) {
-
-      Iterator iterator = current.getDiscards(j);
-      while (iterator.hasNext()) {
-        discards[j][cntr++] = (Card) iterator.next();
-      }
+    if (informationSet) {
+      searchInformationSet(c);
+      if (LOG.isEnabled(Log.Level.DEBUG))
+        LOG.log(Log.Level.DEBUG, "Searched " + iterations + " information set iterations, playing " + best);
+      return best;
+    }
 
-      cntr = 0; // reset
+    // the actions at the root are legal in every world, so any world will do to
+    // find them
+    PackedState s = rootWorld;
+    s.determinize(current, c, rand, beliefs);
+    choiceCount = RolloutKernel.candidates(s, c, choices);
+    if (choiceCount == 1) {
+      best = Action.fromCode(choices[0]);
+      iterations = 0;
+      return best;
     }
 
-    boolean[] handmaid = new boolean[agents.length];
-    for (int i = 0; i < handmaid.length; i++) {
-      handmaid[i] = current.handmaid(i);
+    schedule = null;
+    if (stratified) {
+      long worlds = budget.maxIterations() == Long.MAX_VALUE ? DEFAULT_BUDGET.maxIterations() / WORLD_ITERATIONS
+          : (budget.maxIterations() + WORLD_ITERATIONS - 1) / WORLD_ITERATIONS;
+      planner.plan(current, beliefs, (int) Math.min(worlds, WorldScheduler.MAX_WORLDS), WORLD_ITERATIONS, rand);
+      schedule = planner;
     }
 
-    MyState s = new MyState(rand, agents, remainingCards, topCard, inHand, myIndex, eliminated, topIndex, discards,
-        handmaid);
+    if (threads == 1)
+      search(c, budget, newRoot(choices, choiceCount), true, 0);
+    else if (shared)
+      searchShared(c, s);
+    else
+      searchParallel(c);
+    if (LOG.isEnabled(Log.Level.DEBUG))
+      LOG.log(Log.Level.DEBUG, "Searched " + iterations + " iterations, playing " + best);
 
+    return best;
   }
 
   /**
-   * Apply the Monti Carlo Algorithm in order to make the best move in the current
-   * position
+   * Searches on every thread, and plays the action whose root child has the best
+   * win rate over all the trees, each tree having a child for each of the
+   * choices
    * 
    * @param c card picked up
-   * @return card the agent should play given the position
    */
-  public Card MonteCarlo(Card c) {
-
-    // Need to set up the root node outside of the for loops
-
-    Node rootNode = new Node();
-
-    Node child1 = new Node();
-    Node child2 = new Node();
-
-    // Set up the child nodes for the root node
-    // They are both currently lead nodes, don't need to store anything in them at
-    // this stage
-    // Need to make sure over all of the for loops, that number of visits and score
-    // are maintained
-
-    rootNode.setChild1(child1);
-    rootNode.setChild2(child2);
-
-    child1.setParent(rootNode);
-    child2.setParent(rootNode);
-
-    // GET INFORMATION FOR DETERMINISATION
-
-    MyState[] playerStates = new MyState[4];
-
-    MyRandomAgent[] agents = { new MyRandomAgent(), new MyRandomAgent(), new MyRandomAgent(), new MyRandomAgent() };
-    Card[] remainingCards = current.unseenCards();
-    Card inHand = current.getCard(myIndex);
-    // eliminated info
-    boolean[] eliminated = new boolean[current.numPlayers()];
-    for (int i = 0; i < eliminated.length; i++) {
-      if (current.eliminated(i)) {
-        eliminated[i] = true;
-      }
-    }
-
-    int topIndex = 16 - current.deckSize();
-    // discards info
-    Card[][] discards = new Card[agents.length][16];
-
-    // Iterator to traverse the list
-    int cntr = 0;
-    for (int j = 0; j < discards.length; j++) {
-
-      Iterator iterator = current.getDiscards(j);
-      while (iterator.hasNext()) {
-        discards[j][cntr++] = (Card) iterator.next();
-      }
-
-      cntr = 0; // reset
+  private void searchParallel(Card c) {
+    int[] choices = this.choices;
+    int n = choiceCount;
+    SearchBudget share = budget.split(threads);
+    List<Future<Node>> roots = new ArrayList<Future<Node>>();
+    for (MCTSAgent h : helpers) {
+      prepare(h);
+      int first = firstWorld(roots.size() + 1);
+      roots.add(pool.submit(() -> h.search(c, share, newRoot(choices, n), false, first)));
     }
-    // handmaid info
-    boolean[] handmaid = new boolean[agents.length];
-    for (int i = 0; i < handmaid.length; i++) {
-      handmaid[i] = current.handmaid(i);
+    Node root = search(c, share, newRoot(choices, n), true, 0);
+
+    long[] visits = new long[n];
+    long[] scores = new long[n];
+    addStats(root, visits, scores);
+    long done = iterations;
+    for (int i = 0; i < helpers.length; i++) {
+      addStats(join(roots.get(i)), visits, scores);
+      done += helpers[i].iterations;
     }
+    iterations = done;
+    int leader = 0;
+    for (int i = 1; i < n; i++)
+      if (ratio(scores[i], visits[i]) > ratio(scores[leader], visits[leader]))
+        leader = i;
+    best = Action.fromCode(choices[leader]);
+  }
 
-    // Overarching for-loop
-    // 100 different decks will be generated by this loop
-    for (int i = 0; i < 100; i++) {
-
-      MyState s = new MyState(rand, agents, remainingCards, c, inHand, myIndex, eliminated, topIndex, discards,
-          handmaid);
-
-      // set player states for each random agent
-      try {
-        for (int j = 0; j < agents.length; j++) {
-          playerStates[j] = s.playerState(j);
-          agents[j].newRound(playerStates[j]);
-        }
-      } catch (IllegalActionException e) {
-        System.out.println("Illegal action");
-      }
-
-      rootNode.setState(s);
-
-      // Draw card from deck, then play the card just drawn from the deck
-      try {
-        Card topCard = s.drawCard();
-      } catch (IllegalActionException e) {
-        System.out.println("Illegal action");
-      }
-      System.out.println("------BEGIN EXPAND ROOT NODE------");
-      expandRoot(rootNode, agents, c);
-      System.out.println("------END EXPAND ROOT NODE------");
-
-      for (int j = 0; j < 20; j++) {
-        Node currentNode = rootNode;
-
-        // Go down the tree until a leaf node has been found
-        while (!currentNode.isLeaf()) {
-
-          // Sets the current node to its child with the lowest UCB1 value
-          currentNode = UCB1(currentNode);
-
-        }
-
-        // MyState gameState = new MyState(currentNode.getState());
-
-        // EXPANSION PHASE OF
-        // MONTECARLO---------------------------------------------------------------------------------------------------------------------------------
-
-        // Check if the node has been visited before
-        // If it has been visited, expand the node and set currentNode to one of the
-        // newly generated children
-        int score = 0;
-        if (!currentNode.getIsTerminal()) {
-          if (currentNode.getVisits() != 0) {
-            // Need to expand the node here           
-            expand(currentNode, agents);
-            // Select one of the children as the new node
-            currentNode = currentNode.getFirstChild();
-          }
-
-          // ROLLOUT PHASE OF
-          // MONTECARLO------------------------------------------------------------------------------------------------------------------------
-
-          score = myRollout(currentNode);
-
-        }
-        // BACKPROPAGATION PHASE OF
-        // MONTECARLO-----------------------------------------------------------------------------------------------------------------
-
-        currentNode.incrementScore(score);
-        currentNode.incrementVisits(1);
-        // Travels up the tree, increasing the score and visits for each node until it
-        // reaches the root node
-        while (currentNode.getParent() != null) {
-          if (score == 1) {
-            currentNode.getParent().incrementScore(1);
-          }
-          currentNode.getParent().incrementVisits(1);
-
-          currentNode = currentNode.getParent();
-        }
-      }
+  // adds the statistics of each child of a root to the totals for its action
+  private static void addStats(Node root, long[] visits, long[] scores) {
+    Node[] children = root.getChildren();
+    for (int i = 0; i < children.length; i++) {
+      long stats = children[i].getStats();
+      visits[i] += Node.visits(stats);
+      scores[i] += Node.score(stats);
     }
-
-    //Calculate which of the two leaf nodes from the main root node are better
-    double ratio1 = (double) child1.getScore() / (double) child1.getVisits();
-    double ratio2 = (double) child2.getScore() / (double) child2.getVisits();
-
-    if (ratio1 < ratio2)
-      return c;
-    else
-      return current.getCard(myIndex);
-
   }
 
   /**
+   * Searches one tree on every thread, and plays the action whose root child has
+   * the best win rate, the root having a child for each of the choices
    * 
-   * @param n
-   * @return
+   * @param c     card picked up
+   * @param world a world in which to give the root children their first states
    */
-  public int myRollout(Node n) {
-    MyState gameState = new MyState(n.getState());
+  private void searchShared(Card c, PackedState world) {
+    SearchBudget share = budget.split(threads);
+    Node root = newRoot(choices, choiceCount);
+    // give the root children states before any other thread can reach them
+    expandRoot(root, world, c);
+
+    List<Future<Node>> searches = new ArrayList<Future<Node>>();
+    for (MCTSAgent h : helpers) {
+      prepare(h);
+      int first = firstWorld(searches.size() + 1);
+      searches.add(pool.submit(() -> h.search(c, share, root, false, first)));
+    }
+    search(c, share, root, true, 0);
 
-    // create agents to participate in the rollout
-    MyRandomAgent[] agents = new MyRandomAgent[4];
-    for (int i = 0; i < agents.length; i++) {
-      agents[i] = new MyRandomAgent();
+    long done = iterations;
+    for (int i = 0; i < helpers.length; i++) {
+      join(searches.get(i));
+      done += helpers[i].iterations;
     }
+    iterations = done;
+    best = leader(root);
+  }
 
-    MyState[] playerStates = new MyState[4];
+  // waits for the search of a helper, which shares the state of this agent, so
+  // must end before the move does; if the move is abandoned, the searches are
+  // stopped and still waited for
+  private Node join(Future<Node> search) {
+    boolean interrupted = false;
     try {
-      for (int i = 0; i < playerStates.length; i++) {
-        playerStates[i] = gameState.playerState(i);
-        agents[i].newRound(playerStates[i]);
-      }
-
-      // WHILE ROUND IS NOT OVER && AGENT NOT ELIMINATED
-      while (!gameState.roundOver() && !gameState.eliminated(myIndex)) {
-
-        Card topCard = gameState.drawCard();
-        System.out.println("Player " + gameState.nextPlayer() + " draws the " + topCard);
-        Action act = agents[gameState.nextPlayer()].playCard(topCard);
+      while (true) {
         try {
-          System.out.println(gameState.update(act, topCard));
-        } catch (IllegalActionException e) {
-          // System.out.println("ILLEGAL ACTION PERFORMED BY PLAYER " + agents[gameState.nextPlayer()] + "("
-          //     + gameState.nextPlayer() + ")\nRandom Move Substituted");
-          // randomAgent.newRound(gameState.playerState(gameState.nextPlayer()));
-          // act = randomAgent.playCard(topCard);
-          // gameState.update(act, topCard);
-          System.exit(1);
+          return search.get();
+        } catch (InterruptedException e) {
+          stop();
+          interrupted = true;
         }
-        for (int p = 0; p < agents.length; p++)
-          agents[p].see(act, playerStates[p]);
       }
-      // System.out.println("End of Rollout, scores are:");
-      // for (int i = 0; i < agents.length; i++) {
-      // System.out.println("Player " + i + ": " + gameState.score(i));
-      // }
-      return gameState.score(myIndex);
-    } catch (IllegalActionException e) {
-      System.out.println("IllegalActionException IN ROLLOUT");
-      e.printStackTrace();
-      return -1;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("MCTS worker failed", e.getCause());
+    } finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  // the world of the schedule the given thread starts from, so the threads
+  // begin spread over the schedule
+  private int firstWorld(int thread) {
+    return schedule == null ? 0 : (int) ((long) thread * schedule.size() / threads);
+  }
+
+  // gives a helper the position being searched
+  private void prepare(MCTSAgent h) {
+    h.current = current;
+    h.myIndex = myIndex;
+    h.beliefs = beliefs;
+    h.schedule = schedule;
+    h.stopped = stopped;
+    h.kernel.setPolicy(kernel.getPolicy());
+    h.setRolloutBatch(batch == null ? 1 : batch.capacity());
+    if (h.scratch == null || h.scratch.numPlayers() != current.numPlayers()) {
+      h.scratch = new PackedState(current.numPlayers());
+      h.dealt = new PackedState(current.numPlayers());
     }
   }
 
   /**
-   * expand a node n
+   * Creates the root of a tree, with a child for each action, being leaf nodes
+   * without states until the root is expanded
    * 
-   * @param n
-   * @param topCard
+   * @param choices the codes of the actions
+   * @param n       the number of actions
+   * @return the root
    */
-  private void expand(Node n, MyRandomAgent[] agents) {
-
-    MyState gameState = new MyState(n.getState());
-    MyState[] playerStates = new MyState[4];
-    
-    Node child1 = new Node();
-    Node child2 = new Node();
-    
-    n.setChild1(child1);
-    n.setChild2(child2);
-
-    child1.setParent(n);
-    child2.setParent(n);    
-    
-    Card topCard = null;
+  private static Node newRoot(int[] choices, int n) {
+    Node rootNode = new Node();
+    Node[] children = new Node[n];
+    for (int i = 0; i < children.length; i++)
+      children[i] = new Node(rootNode, choices[i]);
+    rootNode.setChildren(children);
+    return rootNode;
+  }
 
-    try {
-        for (int j = 0; j < agents.length; j++) {
-          playerStates[j] = gameState.playerState(j);
-          agents[j].newRound(playerStates[j]);
-        }
-      } catch (IllegalActionException e) {
-        System.out.println("Illegal action");
+  /**
+   * Gives the action of the root child with the best win rate
+   * 
+   * @param root the root
+   * @return the action
+   */
+  private static Action leader(Node root) {
+    Node[] children = root.getChildren();
+    Node leader = children[0];
+    double leaderRatio = ratio(Node.score(leader.getStats()), Node.visits(leader.getStats()));
+    for (int i = 1; i < children.length; i++) {
+      long stats = children[i].getStats();
+      double r = ratio(Node.score(stats), Node.visits(stats));
+      if (r > leaderRatio) {
+        leader = children[i];
+        leaderRatio = r;
       }
-
-    try {
-      topCard = gameState.drawCard();
-    } catch (IllegalActionException e) {
-      System.out.println("Illegal action");
-      System.exit(1);
     }
-    if (topCard == Card.PRINCESS) {
-
-      Action a = agents[gameState.nextPlayer()].playSpecificCard(gameState.getCard(gameState.nextPlayer()));
+    return Action.fromCode(leader.getAction());
+  }
 
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(a, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
+  /**
+   * Searches a tree until the budget runs out or the search is stopped,
+   * recording the number of iterations completed. The tree may be searched by
+   * other threads at the same time.
+   * 
+   * @param c        card picked up
+   * @param budget   the budget of the search
+   * @param rootNode the root of the tree
+   * @param lead     true to keep the best root child as the best action so far as
+   *                 the search runs
+   * @param first    the world of the schedule to start from, if there is one
+   * @return the root of the tree
+   */
+  private Node search(Card c, SearchBudget budget, Node rootNode, boolean lead, int first) {
+
+    PackedState s = dealt;
+
+    long deadline = budget.deadline();
+    long done = 0;
+    long nextWorld = 0; // the iteration at which to deal the next world
+    int world = first;
+    while (!halted.getAsBoolean() && !budget.exhausted(done, deadline)) {
+
+      // Every few iterations, deal a new world consistent with what we can see and
+      // have inferred, in which we have just drawn c, at random or from the
+      // schedule
+      if (done == nextWorld) {
+        if (schedule == null) {
+          s.determinize(current, c, rand, beliefs);
+          nextWorld += WORLD_ITERATIONS;
+        } else {
+          schedule.deal(world, current, c, beliefs, s, rand);
+          nextWorld += schedule.iterations(world);
+          world = (world + 1) % schedule.size();
         }
-        System.exit(1);
-      }
 
-      child1.setState(gameState);
-      checkIfTerminal(child1);
-
-      child2.incrementVisits(10000000);
-
-    } else if (gameState.getCard(gameState.nextPlayer()) == Card.PRINCESS) {
-      Action a = agents[gameState.nextPlayer()].playSpecificCard(topCard);
-
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(a, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
+        if (LOG.isEnabled(Log.Level.DEBUG))
+          LOG.log(Log.Level.DEBUG, "------BEGIN EXPAND ROOT NODE------");
+        expandRoot(rootNode, s, c);
+        if (LOG.isEnabled(Log.Level.DEBUG))
+          LOG.log(Log.Level.DEBUG, "------END EXPAND ROOT NODE------");
       }
 
-      child1.setState(gameState);
-      checkIfTerminal(child1);
+      Node currentNode = rootNode;
+      currentNode.incrementVisits(1);
+      long before = 0; // the statistics of the current node before this visit
 
-      child2.incrementVisits(10000000);
+      // Go down the tree until a leaf node has been found, counting the visit to
+      // each node on the way down. Until the rollout is scored the visit is a
+      // virtual loss, which steers other threads searching the tree elsewhere.
+      while (!currentNode.isLeaf()) {
 
-    } else if (topCard == Card.COUNTESS && (gameState.getCard(gameState.nextPlayer()) == Card.PRINCE
-        || gameState.getCard(gameState.nextPlayer()) == Card.KING)) {
-      Action a = agents[gameState.nextPlayer()].playSpecificCard(topCard);
+        // Sets the current node to its child with the highest UCB1 value
+        currentNode = UCB1(currentNode);
+        before = currentNode.addStats(1, 0);
 
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(a, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
       }
 
-      child1.setState(gameState);
-      checkIfTerminal(child1);
-
-      child2.incrementVisits(10000000);
-    } else if (gameState.getCard(gameState.nextPlayer()) == Card.COUNTESS
-        && (topCard == Card.PRINCE || topCard == Card.KING)) {
-      Action a = agents[gameState.nextPlayer()].playSpecificCard(gameState.getCard(gameState.nextPlayer()));
-
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(a, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
-      }
-
-      child1.setState(gameState);
-      checkIfTerminal(child1);
-
-      child2.incrementVisits(10000000);
-    } else {
-
-      Action act = agents[gameState.nextPlayer()].playSpecificCard(topCard);
-
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(act, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
+      // EXPANSION PHASE OF
+      // MONTECARLO---------------------------------------------------------------------------------------------------------------------------------
+
+      // Check if the node has been visited before
+      // If it has been visited, expand the node and set currentNode to one of the
+      // newly generated children. Only the thread that claims the node expands it,
+      // any other rolls out from the node itself.
+      if (!currentNode.getIsTerminal() && Node.visits(before) != 0 && currentNode.claimExpansion()) {
+        // Need to expand the node here
+        Node[] children = expand(currentNode);
+        // Select one of the children as the new node
+        currentNode = children[rand.nextInt(children.length)];
+        currentNode.incrementVisits(1);
       }
 
-      child1.setState(gameState);
-      checkIfTerminal(child1);
-
-      // Reset gameState to its inital state from rootNode
-      gameState = new MyState(n.getState());
-      
-      //Need to reset the game states for all the players too
-      try {
-        for (int j = 0; j < agents.length; j++) {
-          playerStates[j] = gameState.playerState(j);
-          agents[j].newRound(playerStates[j]);
-        }
-      } catch (IllegalActionException e) {
-        System.out.println("Illegal action");
-      }
-      
+      // ROLLOUT AND BACKPROPAGATION PHASES OF
+      // MONTECARLO------------------------------------------------------------------------------------------------------------------------
 
-      try {
-        topCard = gameState.drawCard();
-      } catch (IllegalActionException e) {
-        System.out.println("Illegal action");
+      // a terminal node is scored by its own state
+      if (batch == null) {
+        backpropagate(currentNode, myRollout(currentNode));
+      } else {
+        pending[batch.add(currentNode.getState(), myIndex)] = currentNode;
+        if (batch.full())
+          runBatch();
       }
-      act = agents[gameState.nextPlayer()].playSpecificCard(gameState.getCard(gameState.nextPlayer()));
+      done++;
 
-      try {
-        System.out.println(gameState.update(act, topCard));
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
-      }
+      // Publish the best child of the root as the best action so far
+      if (lead)
+        best = leader(rootNode);
+    }
+    if (batch != null && batch.size() > 0)
+      runBatch();
+    iterations = done;
+    return rootNode;
+  }
 
-      // Setup child2
-      child2.setState(gameState);
-      checkIfTerminal(child2);
+  // plays the rollouts of the batch, and backs up their scores
+  private void runBatch() {
+    batch.run();
+    for (int i = 0; i < batch.size(); i++) {
+      backpropagate(pending[i], batch.outcome(i));
+      pending[i] = null;
     }
+    batch.clear();
   }
 
   /**
-   * expand a node n
+   * Travels up the tree from a leaf, increasing the score of each node until it
+   * reaches the root node, the visits having been counted on the way down
    * 
-   * @param n
-   * @param topCard
+   * @param n     the leaf rolled out from
+   * @param score 1 if this agent won the rollout, otherwise 0
    */
-  private void expandRoot(Node n, MyRandomAgent[] agents, Card topCard) {
-
-    MyState gameState = new MyState(n.getState());
-    Node child1 = n.getFirstChild();
-    Node child2 = n.getSecondChild();
-
-    if (topCard == Card.PRINCESS) {
-
-      Action a = agents[gameState.nextPlayer()].playSpecificCard(gameState.getCard(gameState.nextPlayer()));
-
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(a, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
-      }
-
-      child1.setState(gameState);
-      checkIfTerminal(child1);
-
-      child2.incrementVisits(10000000);
-
-    } else if (gameState.getCard(gameState.nextPlayer()) == Card.PRINCESS) {
-      Action a = agents[gameState.nextPlayer()].playSpecificCard(topCard);
+  private static void backpropagate(Node n, int score) {
+    if (score == 1) {
+      for (; n != null; n = n.getParent())
+        n.incrementScore(1);
+    }
+  }
 
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(a, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
+  /**
+   * Searches one information set tree, rooted at our decision, until the budget
+   * runs out or the search is stopped. Each iteration samples a world
+   * consistent with what we can see, and walks down the children legal in it
+   * until it finds an untried action, which it adds to the tree, then plays the
+   * round out at random. Every node on the path is scored for the player whose
+   * action it is. The most visited child of the root among our legal actions is
+   * kept as the best action so far. The search continues the tree kept from the
+   * last decision, if the actions since then were all in it, having copied the
+   * part of it still in use to the spare arena.
+   * 
+   * @param c card picked up
+   */
+  private void searchInformationSet(Card c) {
+    if (treeRoot == NodeArena.NONE) {
+      tree.reset();
+      treeRoot = tree.add(NodeArena.NONE, -1);
+    } else if (treeRoot != 0) {
+      treeRoot = tree.compact(treeRoot, spare);
+      NodeArena t = tree;
+      tree = spare;
+      spare = t;
+    }
+    int root = treeRoot;
+    PackedState world = scratch;
+    // the actions we may choose between, for picking the best of the root children
+    choiceCount = current.legalActions(choices, c);
+    if (choiceCount > 1 && Action.cardOf(choices[choiceCount - 1]) == Card.PRINCESS)
+      choiceCount--;// never play princess
+    if (LOG.isEnabled(Log.Level.DEBUG))
+      LOG.log(Log.Level.DEBUG, "Information set search starting from " + tree.size() + " nodes");
+
+    long deadline = budget.deadline();
+    long done = 0;
+    while (!halted.getAsBoolean() && !budget.exhausted(done, deadline)) {
+      world.determinize(current, c, rand, beliefs);
+      int node = root;
+      Card drawn = c;
+
+      // Go down the children compatible with this world until an action has not
+      // been tried, or the round ends
+      while (true) {
+        int n = RolloutKernel.moves(world, drawn, actions);
+        int next = NodeArena.NONE;
+        double nextBound = 0;
+        int untried = 0;
+        for (int i = 0; i < n; i++) {
+          int child = tree.child(node, actions[i]);
+          if (child == NodeArena.NONE) {
+            actions[untried++] = actions[i];
+          } else {
+            tree.markAvailable(child);
+            double bound = tree.ucb(child, EXPLORATION);
+            if (next == NodeArena.NONE || bound > nextBound) {
+              next = child;
+              nextBound = bound;
+            }
+          }
         }
-        System.exit(1);
-      }
-
-      child1.setState(gameState);
-      checkIfTerminal(child1);
-
-      child2.incrementVisits(10000000);
-
-    } else if (topCard == Card.COUNTESS && (gameState.getCard(gameState.nextPlayer()) == Card.PRINCE
-        || gameState.getCard(gameState.nextPlayer()) == Card.KING)) {
-      Action a = agents[gameState.nextPlayer()].playSpecificCard(topCard);
-
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(a, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
+        if (untried > 0) {
+          int action = actions[rand.nextInt(untried)];
+          node = tree.add(node, action);
+          tree.markAvailable(node);
+          world.play(action, drawn);
+          break;
         }
-        System.exit(1);
+        node = next;
+        world.play(tree.action(node), drawn);
+        if (world.roundOver())
+          break;
+        drawn = world.drawCard();
       }
 
-      child1.setState(gameState);
-      checkIfTerminal(child1);
+      int winner = kernel.winner(world);
+      for (int n = node; n != root; n = tree.parent(n))
+        tree.update(n, winner == Action.playerOf(tree.action(n)));
+      done++;
 
-      child2.incrementVisits(10000000);
-    } else if (gameState.getCard(gameState.nextPlayer()) == Card.COUNTESS
-        && (topCard == Card.PRINCE || topCard == Card.KING)) {
-      Action a = agents[gameState.nextPlayer()].playSpecificCard(gameState.getCard(gameState.nextPlayer()));
-
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(a, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
+      if (done % WORLD_ITERATIONS == 0) {
+        int leader = tree.mostVisited(root, choices, choiceCount);
+        if (leader != NodeArena.NONE)
+          best = Action.fromCode(tree.action(leader));
       }
+    }
+    iterations = done;
+    int leader = tree.mostVisited(root, choices, choiceCount);
+    if (leader != NodeArena.NONE)
+      best = Action.fromCode(tree.action(leader));
+  }
 
-      child1.setState(gameState);
-      checkIfTerminal(child1);
-
-      child2.incrementVisits(10000000);
-    } else {
+  // the win rate of a node, or -1 if it has not been visited
+  private static double ratio(long score, long visits) {
+    return visits == 0 ? -1 : (double) score / (double) visits;
+  }
 
-      Action act = agents[gameState.nextPlayer()].playSpecificCard(topCard);
+  /**
+   * Plays the state in node n out until the round is over or this agent is
+   * eliminated
+   * 
+   * @param n the node to roll out from
+   * @return 1 if this agent wins the round, otherwise 0
+   */
+  public int myRollout(Node n) {
+    return kernel.outcome(n.getState(), myIndex);
+  }
 
-      // Update the gameState, then deep copy it into a child node
-      try {
-        gameState.update(act, topCard);
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
-      }
+  /**
+   * expand a node n, with a child for each action of the player to move worth
+   * searching, as found by RolloutKernel.candidates. The children are given their states before they are added to n, so
+   * other threads never see a child without a state.
+   * 
+   * @param n the leaf node to expand
+   * @return the children
+   */
+  private Node[] expand(Node n) {
 
-      child1.setState(gameState);
-      checkIfTerminal(child1);
+    PackedState gameState = scratch;
+    gameState.copyFrom(n.getState());
 
-      // Reset gameState to its inital state from rootNode
-      gameState = new MyState(n.getState());
+    Card topCard = gameState.drawCard();
+    Node[] children = new Node[RolloutKernel.candidates(gameState, topCard, actions)];
+    for (int i = 0; i < children.length; i++)
+      children[i] = new Node(n, actions[i]);
+    expandChildren(children, gameState, topCard);
 
-      try {
-        topCard = gameState.drawCard();
-      } catch (IllegalActionException e) {
-        System.out.println("Illegal action");
-      }
-      act = agents[gameState.nextPlayer()].playSpecificCard(gameState.getCard(gameState.nextPlayer()));
+    n.setChildren(children);
+    return children;
+  }
 
-      try {
-        System.out.println(gameState.update(act, topCard));
-      } catch (IllegalActionException e) {
-        System.out.println("Update didnt work");
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException l) {
-          System.out.println(l);
-        }
-        System.exit(1);
-      }
+  /**
+   * expand the root node in a world in which we have just drawn the top card
+   * 
+   * @param n       the root node
+   * @param world   the world
+   * @param topCard the card we have drawn
+   */
+  private void expandRoot(Node n, PackedState world, Card topCard) {
+    scratch.copyFrom(world);
+    expandChildren(n.getChildren(), scratch, topCard);
+  }
 
-      // Setup child2
-      child2.setState(gameState);
-      checkIfTerminal(child2);
+  /**
+   * Sets the state of each child of a node, being the state after the player to
+   * move makes the action of the child
+   * 
+   * @param children  the children of the node being expanded
+   * @param gameState the state at the node after the card has been drawn, which
+   *                  is restored before returning
+   * @param topCard   the card drawn
+   */
+  private void expandChildren(Node[] children, PackedState gameState, Card topCard) {
+    long record = gameState.mark();
+    for (Node child : children) {
+      gameState.play(child.getAction(), topCard);
+      child.setState(gameState);
+      checkIfTerminal(child);
+      gameState.undo(record);
     }
   }
 
   /**
-   * Checks if node n is a terminal node
+   * Checks if node n is a terminal node, clearing the flag if it is not, as the
+   * root children are given a new state in every world
    * 
    * @param n
    */
   private void checkIfTerminal(Node n) {
 
-    MyState s = n.getState();
-
-    if (s.roundOver()) {
-      n.setIsTerminal(true);
-
-      if (s.score(myIndex) == 1) {
-        n.incrementScore(1);
-      }
-
-      return;
-    }
+    PackedState s = n.getState();
 
-    if (s.eliminated(myIndex)) {
-      n.setIsTerminal(true);
-      return;
-    }
+    n.setIsTerminal(s.roundOver() || s.eliminated(myIndex));
 
   }
 
   /**
-   * Returns the child that has the lowest UCB1 value
+   * Returns the child that has the highest UCB1 value
    * 
    * 
    */
   public Node UCB1(Node parent) {
 
-    Node child1 = parent.getFirstChild();
-    Node child2 = parent.getSecondChild();
-
-    // Checking if visits for either of the nodes is 0, which would make UCB1
-    // infinite
-    if (child1.getVisits() == 0) {
-      return child1;
-    } else if (child2.getVisits() == 0) {
-      return child2;
-    }
-
-    double score1 = ((double) child1.getScore() / (double) child1.getVisits())
-        + 2 * 20.0 * Math.sqrt((Math.log(parent.getVisits()) / child1.getVisits()));
-    double score2 = ((double) child2.getScore() / (double) child2.getVisits())
-        + 2 * 20.0 * Math.sqrt((Math.log(parent.getVisits()) / child2.getVisits()));
-
-    // System.out.println("UCB1 for child 1: " + score1);
-    // System.out.println("UCB1 for child 2: " + score2);
-
-    if (score1 >= score2) {
-      return child1;
-    } else {
-      return child2;
+    Node[] children = parent.getChildren();
+    double logVisits = Math.log(parent.getVisits());
+
+    Node best = null;
+    double bestScore = 0;
+    for (Node child : children) {
+      // Read the visits and score of each child together, as other threads may be
+      // updating them. Visits still being searched count as losses.
+      long stats = child.getStats();
+      int visits = Node.visits(stats);
+
+      // A child that has not been visited would have an infinite UCB1 value
+      if (visits == 0)
+        return child;
+
+      double score = ((double) Node.score(stats) / (double) visits) + 2 * 20.0 * Math.sqrt((logVisits / visits));
+      if (best == null || score > bestScore) {
+        best = child;
+        bestScore = score;
+      }
     }
+    return best;
   }
 
 }
@@ -1,6 +1,7 @@
 package agents;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 import loveletter.*;
 
 /**
@@ -9,13 +10,34 @@ import loveletter.*;
  */
 public class MyRandomAgent {
 
-  private Random rand;
+  private RandomGenerator rand;
   private MyState current;
   private int myIndex;
+  private int[] actions = new int[State.MAX_ACTIONS];// buffer for the legal actions each turn
+
+  private static final Log LOG = Log.get("myrandom");
 
   // 0 place default constructor
   public MyRandomAgent() {
-    rand = new Random();
+    this(new SplittableRandom());
+  }
+
+  /**
+   * Constructs an agent drawing its moves from the given generator
+   * 
+   * @param rand the random number generator, used only by this agent
+   */
+  public MyRandomAgent(RandomGenerator rand) {
+    this.rand = rand;
+  }
+
+  /**
+   * Sets the random number generator the agent draws its moves from
+   * 
+   * @param random the generator, used only by this agent
+   */
+  public void setRandom(RandomGenerator random) {
+    rand = random;
   }
 
   /**
@@ -53,89 +75,31 @@ public class MyRandomAgent {
    * @throws IllegalActionException when the Action produced is not legal.
    */
   public Action playCard(Card c) {
-    Action act = null;
-    Card play;
-    while (!current.legalAction(act, c)) {
-      if (rand.nextDouble() < 0.5)
-        play = c;
-      else
-        play = current.getCard(myIndex);
-      int target = rand.nextInt(current.numPlayers());
-      try {
-        switch (play) {
-        case GUARD:
-          act = Action.playGuard(myIndex, target, Card.values()[rand.nextInt(7) + 1]);
-          break;
-        case PRIEST:
-          act = Action.playPriest(myIndex, target);
-          break;
-        case BARON:
-          act = Action.playBaron(myIndex, target);
-          break;
-        case HANDMAID:
-          act = Action.playHandmaid(myIndex);
-          break;
-        case PRINCE:
-          act = Action.playPrince(myIndex, target);
-          break;
-        case KING:
-          act = Action.playKing(myIndex, target);
-          break;
-        case COUNTESS:
-          act = Action.playCountess(myIndex);
-          break;
-        default:
-          act = null;// never play princess
-        }
-      } catch (IllegalActionException e) {
-        /* do nothing */}
-    }
-    return act;
+    int n = current.legalActions(actions, c);
+    if (n > 1 && Action.cardOf(actions[n - 1]) == Card.PRINCESS)
+      n--;// never play princess
+    return Action.fromCode(actions[rand.nextInt(n)]);
   }
 
+  /**
+   * Plays the given card against a random legal target, with a random guess for
+   * the guard
+   * 
+   * @param c the card to play, which must be the drawn card or the held card
+   * @return the action the agent chooses to perform
+   */
   public Action playSpecificCard(Card c) {
-
-    Action act = null;
-    int target = rand.nextInt(current.numPlayers());
-
-    while (!current.legalAction(act, c)) {
-      try {
-        target = rand.nextInt(current.numPlayers());
-        switch (c) {
-        case GUARD:
-          act = Action.playGuard(myIndex, target, Card.values()[rand.nextInt(7) + 1]);
-          break;
-        case PRIEST:
-          act = Action.playPriest(myIndex, target);
-          break;
-        case BARON:
-          act = Action.playBaron(myIndex, target);
-          break;
-        case HANDMAID:
-          act = Action.playHandmaid(myIndex);
-          break;
-        case PRINCE:
-          act = Action.playPrince(myIndex, target);
-          break;
-        case KING:
-          act = Action.playKing(myIndex, target);
-          break;
-        case COUNTESS:
-          act = Action.playCountess(myIndex);
-          break;
-        default:
-          System.out.println("PRINCESS ATTEMPTED TO BE PLAYED");
-          act = null;// never play princess
-        }
-      } catch (IllegalActionException e) {
-        System.out.println("Card that agent tried to play: " + c.toString());
-        System.out.println("Target was: " + target);
-        System.out.println("Random agent tried to play illegal action");
-      }
+    int n = current.legalActions(actions, c);
+    int matching = 0;
+    for (int i = 0; i < n; i++)
+      if (Action.cardOf(actions[i]) == c)
+        actions[matching++] = actions[i];
+    if (matching == 0) {
+      if (LOG.isEnabled(Log.Level.WARN))
+        LOG.log(Log.Level.WARN, "Random agent tried to play illegal action with the " + c);
+      return null;
     }
-
-    return act;
-
+    return Action.fromCode(actions[rand.nextInt(matching)]);
   }
 
 }
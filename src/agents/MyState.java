@@ -20,11 +20,13 @@ public class MyState implements Cloneable {
     private boolean[][] known; // whether player knows another players card
     private boolean[] handmaid;
     private int[] scores; // the current score of each player
-    private java.util.Random random;
+    private java.util.random.RandomGenerator random;
     private int[] nextPlayer; // the index of the next player to draw a card (using Object reference so value
                               // is shared).
     private MyRandomAgent[] agents;
 
+    private static final Log LOG = Log.get("mystate");
+
     /**
      * Default constructor to build the initial observed state for a player First
      * player in the array will always start
@@ -34,7 +36,7 @@ public class MyState implements Cloneable {
      *               4)
      * @throws IllegalArgumentException if the array is of the wrong size.
      */
-    public MyState(java.util.Random random, MyRandomAgent[] agents, Card[] remainingCards, Card topCard, Card inHand,
+    public MyState(java.util.random.RandomGenerator random, MyRandomAgent[] agents, Card[] remainingCards, Card topCard, Card inHand,
             int plrIndex, boolean[] eliminated, int topIndex, Card[][] discscards, boolean[] handmaid) {
         num = agents.length;
         if (num < 2 || num > 4)
@@ -161,27 +163,12 @@ public class MyState implements Cloneable {
         
         // organise the deck h1, h2, h3, h4, topCard, rest of deck
         newDeck = moveToTop(newDeck, topCard, inHand, plrIndex, indexes, eliminated);
-        System.out.println("\nCard in hand: " + inHand.toString() + " index in deck originally: " + indexes[0]);
-        System.out.println("Top card: " + topCard.toString() + " index in deck originally: " + indexes[1]);
-        System.out.println("\nCards in deck:");
-        for(int i = 0; i < newDeck.length; i++){
-            if(newDeck[i] == null){
-                System.out.println("null");
-            }
-            else{
-                System.out.println(newDeck[i].toString());
-            }
-        }
-        System.out.println("\nUnseen cards:");
-        for(int i = 0; i < remainingCards.length; i++){
-            if(remainingCards[i] == null){
-                System.out.println("null");
-            }
-            else{
-                System.out.println(remainingCards[i].toString());
-            }
+        if (LOG.isEnabled(Log.Level.TRACE)) {
+            LOG.log(Log.Level.TRACE, "Card in hand: " + inHand + " index in deck originally: " + indexes[0]);
+            LOG.log(Log.Level.TRACE, "Top card: " + topCard + " index in deck originally: " + indexes[1]);
+            LOG.log(Log.Level.TRACE, "Cards in deck: " + java.util.Arrays.toString(newDeck));
+            LOG.log(Log.Level.TRACE, "Unseen cards: " + java.util.Arrays.toString(remainingCards));
         }
-        System.out.println();
         
         
         deck = newDeck;
@@ -227,16 +214,8 @@ public class MyState implements Cloneable {
      * @param d
      * @return
      */
-    private Card[] shuffle(java.util.Random rand, Card[] d) {
-        int size = d.length;
-
-        for (int i = 0; i < 200; i++) { // make two hundred random swaps of cards
-            int index1 = rand.nextInt(size);
-            int index2 = rand.nextInt(size);
-            Card c = d[index1];
-            d[index1] = d[index2];
-            d[index2] = c;
-        }
+    private Card[] shuffle(java.util.random.RandomGenerator rand, Card[] d) {
+        Card.shuffle(d, d.length, rand);
         return d;
     }
 
@@ -413,6 +392,59 @@ public class MyState implements Cloneable {
         return true;
     }
 
+    /**
+     * Enumerates every legal action for the player to move, who has just drawn a
+     * card, into a buffer supplied by the caller, as int encoded actions (see
+     * Action.encode). Actions are listed in order of the card played, so a Princess
+     * action is always last. No objects are created and no exceptions are thrown.
+     * 
+     * @param actions the buffer to fill, which must have room for
+     *                State.MAX_ACTIONS actions
+     * @param drawn   the card drawn by the playing agent.
+     * @return the number of legal actions written to the buffer
+     **/
+    public int legalActions(int[] actions, Card drawn) {
+        int a = nextPlayer[0];
+        Card held = hand[a];
+        if (held == null || drawn == null)
+            return 0;
+        Card first = held.value() <= drawn.value() ? held : drawn;
+        Card second = first == held ? drawn : held;
+        int n = legalActions(actions, 0, a, first, held, drawn);
+        if (second != first)
+            n = legalActions(actions, n, a, second, held, drawn);
+        return n;
+    }
+
+    private static final Card[] CARDS = Card.values();
+
+    private int legalActions(int[] actions, int n, int a, Card c, Card held, Card drawn) {
+        if ((held == Card.COUNTESS || drawn == Card.COUNTESS) && (c == Card.KING || c == Card.PRINCE))
+            return n;// the countess must be played
+        if (c == Card.HANDMAID || c == Card.COUNTESS || c == Card.PRINCESS) {
+            actions[n++] = Action.encode(c, a, -1, null);
+            return n;
+        }
+        boolean all = allHandmaid(a);
+        for (int t = 0; t < num; t++) {
+            if (eliminated(t))
+                continue;
+            if (t == a) {
+                if (c == Card.PRINCE)
+                    actions[n++] = Action.encode(c, a, t, null);
+                continue;
+            }
+            if (handmaid[t] && (!all || c == Card.PRINCE))
+                continue;
+            if (c == Card.GUARD)
+                for (int g = 1; g < CARDS.length; g++)
+                    actions[n++] = Action.encode(c, a, t, CARDS[g]);
+            else
+                actions[n++] = Action.encode(c, a, t, null);
+        }
+        return n;
+    }
+
     /**
      * Draws a card for a player from the shuffled deck. May only be performed in
      * the game state. The card is no longer available on the top of the deck.
@@ -434,10 +466,26 @@ public class MyState implements Cloneable {
      * @param act  the action to be performed
      * @param card the card drawn by the actor
      * @return a plain English description of the action
-     * @throws IllegalActionAxception if the state is a player state, or if the
+     * @throws IllegalActionException if the state is a player state, or if the
      *                                action is against the rules.
      ***/
     public String update(Action act, Card card) throws IllegalActionException {
+        return describe(act, execute(act, card));
+    }
+
+    /**
+     * Executes the given action of a player, without describing it. The returned
+     * outcome code records who was eliminated, whether a card was revealed and
+     * whether the round ended (see the Outcome class). May only be called for
+     * non-player states (i.e. the omniscient game engine state)
+     * 
+     * @param act  the action to be performed
+     * @param card the card drawn by the actor
+     * @return the outcome code of the action
+     * @throws IllegalActionException if the state is a player state, or if the
+     *                                action is against the rules.
+     ***/
+    public int execute(Action act, Card card) throws IllegalActionException {
         if (player != -1)// Actions may only be executed from game states
             throw new IllegalActionException("Method cannot be called from a player state");
         int a = act.player();// actor
@@ -459,31 +507,31 @@ public class MyState implements Cloneable {
                     known[p][a] = false;// rescind players knowledge if a known card was played
         }
         handmaid[a] = false;
-        String ret = act.toString(name(a), t != -1 ? name(t) : "");
+        int ret = Outcome.NONE;
         switch (c) {
         case GUARD:// actor plays the guard
-            ret += guardAction(a, t, act.guess());
+            ret = guardAction(a, t, act.guess());
             break;
         case PRIEST:
-            ret += priestAction(a, t);
+            ret = priestAction(a, t);
             break;
         case BARON:
-            ret += baronAction(a, t);
+            ret = baronAction(a, t);
             break;
         case HANDMAID:
             handmaid[a] = true;
             break;
         case PRINCE:
-            ret += princeAction(t);
+            ret = princeAction(t);
             break;
         case KING:
-            ret += kingAction(a, t);
+            ret = kingAction(a, t);
             break;
         case COUNTESS:
             // no update required
             break;
         case PRINCESS:
-            ret += princessAction(a);
+            ret = princessAction(a);
             break;
         default:
             throw new IllegalActionException("Illegal Action? Something's gone very wrong");
@@ -493,7 +541,7 @@ public class MyState implements Cloneable {
                 for (int p = 0; p < num; p++)
                     known[i][p] = true;
             int winner = roundWinner();
-            ret += "\nPlayer " + winner + " wins the round.";
+            ret |= Outcome.roundOver(winner);
             scores[winner]++;
             nextPlayer[0] = winner;
         } else {// set nextPlayer to next noneliminated player
@@ -504,69 +552,107 @@ public class MyState implements Cloneable {
         return ret;
     }
 
-    private String guardAction(int a, int t, Card guess) {
+    /**
+     * Produces a plain English description of an action from its outcome code.
+     * 
+     * @param act     the action that was performed
+     * @param outcome the outcome code returned by execute for the action
+     * @return a plain English description of the action
+     **/
+    public String describe(Action act, int outcome) {
+        int a = act.player();// actor
+        int t = act.target();// target
+        String ret = act.toString(name(a), t != -1 ? name(t) : "");
+        int elim = Outcome.eliminatedPlayer(outcome);
+        Card discard = Outcome.discardedCard(outcome);
+        if (Outcome.isProtected(outcome))
+            ret += "\nPlayer " + name(t) + " is protected by the Handmaid.";// no effect action
+        else
+            switch (act.card()) {
+            case GUARD:
+                if (elim != -1)
+                    ret += "\nPlayer " + name(t) + " had the " + act.guess() + " and is eliminated from the round";
+                else
+                    ret += "\nPlayer " + name(t) + " does not have the " + act.guess();
+                break;
+            case PRIEST:
+                ret += "\nPlayer " + name(a) + " sees player " + name(t) + "'s card.";
+                break;
+            case BARON:
+                if (elim != -1)
+                    ret += "\nPlayer " + name(elim) + " holds the lesser card: " + discard + ", and is eliminated";
+                else
+                    ret += "\n Both players hold the same card, and neither is eliminated.";
+                break;
+            case PRINCE:
+                if (elim != -1)
+                    ret += "\nPlayer " + name(t) + " discarded the Princess and is eliminated.";
+                else
+                    ret += "\nPlayer " + name(t) + " discards the " + discard + ".";
+                break;
+            case KING:
+                ret += "\nPlayer " + name(a) + " and player " + name(t) + " swap cards.";
+                break;
+            case PRINCESS:
+                ret += "\nPlayer " + name(a) + " played the Princess and is eliminated.";
+                ret += "\n Player " + name(a) + " was also holding the " + discard + ".";
+                break;
+            default:// handmaid and countess have nothing to report
+            }
+        if (Outcome.isRoundOver(outcome))
+            ret += "\nPlayer " + Outcome.roundWinner(outcome) + " wins the round.";
+        return ret;
+    }
+
+    private int guardAction(int a, int t, Card guess) {
         if (allHandmaid(a))
-            return "\nPlayer " + name(t) + " is protected by the Handmaid.";// no effect action
-        else if (guess == hand[t]) {// correct guess, target eliminated
-            discards[t][discardCount[t]++] = hand[t];
-            hand[t] = null;
-            for (int p = 0; p < num; p++)
-                known[p][t] = true;
-            return "\nPlayer " + name(t) + " had the " + guess + " and is eliminated from the round";
-        } else
-            return "\nPlayer " + name(t) + " does not have the " + guess;
+            return Outcome.PROTECTED;// no effect action
+        else if (guess == hand[t]) // correct guess, target eliminated
+            return eliminate(t);
+        else
+            return Outcome.NONE;
     }
 
-    private String priestAction(int a, int t) {
+    private int priestAction(int a, int t) {
         if (allHandmaid(a))
-            return "\nPlayer " + name(t) + " is protected by the Handmaid.";// no effect action
+            return Outcome.PROTECTED;// no effect action
         else
             known[a][t] = true;
-        return "\nPlayer " + name(a) + " sees player " + name(t) + "'s card.";
+        return Outcome.REVEALED;
     }
 
-    private String baronAction(int a, int t) {
+    private int baronAction(int a, int t) {
         if (allHandmaid(a))
-            return "\nPlayer " + name(t) + " is protected by the Handmaid.";// no effect action
+            return Outcome.PROTECTED;// no effect action
         int elim = -1;
         if (hand[a].value() > hand[t].value())
             elim = t;
         else if (hand[a].value() < hand[t].value())
             elim = a;
-        if (elim != -1) {
-            discards[elim][discardCount[elim]++] = hand[elim];
-            hand[elim] = null;
-            for (int p = 0; p < num; p++)
-                known[p][elim] = true;
-            return "\nPlayer " + name(elim) + " holds the lesser card: " + discards[elim][discardCount[elim] - 1]
-                    + ", and is eliminated";
-        }
+        if (elim != -1)
+            return eliminate(elim);
         known[a][t] = true;
         known[t][a] = true;
-        return "\n Both players hold the same card, and neither is eliminated.";
+        return Outcome.REVEALED;
     }
 
     // handmaid action requires no update
 
-    private String princeAction(int t) {
+    private int princeAction(int t) {
         Card discard = hand[t];
+        if (discard == Card.PRINCESS)
+            return eliminate(t);
         discards[t][discardCount[t]++] = discard;
-        if (discard == Card.PRINCESS) {
-            hand[t] = null;
-            for (int p = 0; p < num; p++)
-                known[p][t] = true;
-            return "\nPlayer " + name(t) + " discarded the Princess and is eliminated.";
-        }
         hand[t] = deck[top[0]++];
         for (int p = 0; p < num; p++)
             if (p != t)
                 known[p][t] = false;
-        return "\nPlayer " + name(t) + " discards the " + discard + ".";
+        return Outcome.discarded(discard);
     }
 
-    private String kingAction(int a, int t) {
+    private int kingAction(int a, int t) {
         if (allHandmaid(a))
-            return "\nPlayer " + name(t) + " is protected by the Handmaid.";
+            return Outcome.PROTECTED;
         known[a][t] = true;
         known[t][a] = true;
         for (int p = 0; p < num; p++) {
@@ -579,19 +665,23 @@ public class MyState implements Cloneable {
         Card tmp = hand[a];
         hand[a] = hand[t];
         hand[t] = tmp;
-        return "\nPlayer " + name(a) + " and player " + name(t) + " swap cards.";
+        return Outcome.NONE;
     }
 
     // countess action not required
 
-    private String princessAction(int a) {
-        discards[a][discardCount[a]++] = hand[a];
-        hand[a] = null;
-        for (int p = 0; p < num; p++)
-            known[p][a] = true;
-        String outcome = "\nPlayer " + name(a) + " played the Princess and is eliminated.";
-        outcome += "\n Player " + name(a) + " was also holding the " + discards[a][discardCount[a] - 1] + ".";
-        return outcome;
+    private int princessAction(int a) {
+        return eliminate(a);
+    }
+
+    // discards the player's card and removes them from the round
+    private int eliminate(int p) {
+        Card c = hand[p];
+        discards[p][discardCount[p]++] = c;
+        hand[p] = null;
+        for (int q = 0; q < num; q++)
+            known[q][p] = true;
+        return Outcome.eliminated(p, c);
     }
 
     /**
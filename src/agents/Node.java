@@ -1,28 +1,55 @@
 package agents;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 import loveletter.*;
 
 //Represents a node for MCTS of Love Letter
+//Each child of a node is reached by one legal action of the player to move: card, target and guess.
+//Nodes may be shared by several searching threads: the statistics are updated atomically,
+//and children and states are published only once they are complete.
 public class Node {
 
     private Node parent;
-    private Node child1;
-    private Node child2;
-    private int visits;
-    private int score;
-    private boolean isTerminal;
-    private MyState nodeState;    // State for this node, generated already from the unseen cards and methods in myState.java
+    private int action;    // the code of the action leading to this node, or -1 at the root
+    private volatile Node[] children;    // null until the node is expanded
+    private volatile long stats;    // the visits in the high 32 bits and the score in the low 32 bits, updated atomically
+    private volatile int expanding; // set by the one thread allowed to expand this node
+    private volatile boolean isTerminal;
+    private volatile PackedState nodeState;    // State for this node, a determinized world in the compact simulation representation
+
+    private static final VarHandle STATS;
+    private static final VarHandle EXPANDING;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STATS = lookup.findVarHandle(Node.class, "stats", long.class);
+            EXPANDING = lookup.findVarHandle(Node.class, "expanding", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     /**
-     * Constructor for node, needs a card in hand, card just drawn from deck, the unseen cards and the player index to be constructed
-     * 
+     * Constructor for the root node
+     *
      */
     public Node(){
-        parent = null;
-        child1 = null;
-        child2 = null;
-        visits = 0;
-        score = 0;
+        this(null, -1);
+    }
+
+    /**
+     * Constructor for the child of a node reached by an action
+     * @param parent the parent node
+     * @param action the code of the action
+     */
+    public Node(Node parent, int action){
+        this.parent = parent;
+        this.action = action;
+        children = null;
+        stats = 0;
         nodeState = null;
         isTerminal = false;
     }
@@ -34,26 +61,47 @@ public class Node {
         return isTerminal;
     }
     public int getVisits(){
-        return visits;
+        return visits(stats);
     }
 
     public int getScore(){
-        return score;
+        return score(stats);
+    }
+
+    /**
+     * Returns the visits and score read together, so they are consistent with each other
+     */
+    public long getStats(){
+        return stats;
+    }
+
+    public static int visits(long stats){
+        return (int)(stats >>> 32);
+    }
+
+    public static int score(long stats){
+        return (int)stats;
     }
 
     public Node getParent(){
         return parent;
     }
 
-    public Node getFirstChild(){
-        return child1;
+    /**
+     * Returns the code of the action leading to this node, or -1 at the root
+     */
+    public int getAction(){
+        return action;
     }
 
-    public Node getSecondChild(){
-        return child2;
+    /**
+     * Returns the children of the node, which must not be modified, or null if it is a leaf node
+     */
+    public Node[] getChildren(){
+        return children;
     }
 
-    public MyState getState(){
+    public PackedState getState(){
         return nodeState;
     }
 
@@ -61,7 +109,7 @@ public class Node {
      * Returns true if the node is a leaf node
      */
     public boolean isLeaf(){
-        return ( (child1 == null) && (child2 == null) );
+        return children == null;
     }
 
     /**--------------------------------------------------------------------------------------------------------------
@@ -74,24 +122,44 @@ public class Node {
         parent = p;
     }
 
-    public void setChild1(Node c){
-        child1 = c;
-    }
-
-    public void setChild2(Node c){
-        child2 = c;
+    /**
+     * Sets every child at once, so another thread that sees this node is no longer a leaf
+     * also sees all of its children
+     */
+    public void setChildren(Node[] c){
+        children = c;
     }
 
     public void incrementVisits(int v){
-        visits += v;
+        addStats(v, 0);
     }
 
     public void incrementScore(int s){
-        score += s;
+        addStats(0, s);
+    }
+
+    /**
+     * Adds to the visits and score in one atomic step
+     * @return the visits and score before the addition
+     */
+    public long addStats(int v, int s){
+        return (long)STATS.getAndAdd(this, ((long)v << 32) + s);
+    }
+
+    /**
+     * Claims the right to expand this node, so only one thread expands it
+     * @return true for the first caller only
+     */
+    public boolean claimExpansion(){
+        return EXPANDING.compareAndSet(this, 0, 1);
     }
 
-    public void setState(MyState s){
-        nodeState = new MyState(s);
+    /**
+     * Sets the state to a copy of s. A new copy is made each time,
+     * so threads still reading the previous state are unaffected.
+     */
+    public void setState(PackedState s){
+        nodeState = new PackedState(s);
     }
 
-}
\ No newline at end of file
+}
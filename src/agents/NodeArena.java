@@ -0,0 +1,224 @@
+package agents;
+
+import java.util.Arrays;
+
+/**
+ * The nodes of an information set search tree, stored as parallel arrays of
+ * ints indexed by node id rather than as objects. A node stands for every
+ * state reached by the same sequence of observable actions, whatever the hidden
+ * cards, so no state is stored: the search replays the actions on a sampled
+ * world on the way down.
+ *
+ * Each node records the action leading to it, its parent, its first child and
+ * its next sibling, so the children of a node form a list keyed by action code.
+ * Only some children are compatible with a given determinization, being those
+ * whose action is legal in it, so each node counts how often it was available
+ * to be chosen, and the selection uses that count in place of the visits of the
+ * parent.
+ *
+ * The arrays grow in chunks, so adding a node never copies the nodes already
+ * stored, and reset empties the arena in constant time, keeping the chunks for
+ * the next tree.
+ **/
+public class NodeArena {
+
+  /** The id of no node, for the parent of a root or the end of a list of children **/
+  public static final int NONE = -1;
+
+  private static final int SHIFT = 12;
+  private static final int CHUNK = 1 << SHIFT; // the number of nodes in each chunk
+  private static final int MASK = CHUNK - 1;
+
+  private int[][] parent = new int[0][];
+  private int[][] action = new int[0][]; // the code of the action leading to the node, or -1 at the root
+  private int[][] firstChild = new int[0][];
+  private int[][] nextSibling = new int[0][];
+  private int[][] visits = new int[0][];
+  private int[][] wins = new int[0][]; // the visits in which the player who made the action won the round
+  private int[][] available = new int[0][]; // the visits to the parent in which the action was legal
+  private int size;
+
+  /** Removes every node, keeping the storage for the next tree **/
+  public void reset() {
+    size = 0;
+  }
+
+  /** @return the number of nodes **/
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds a node with no statistics and no children
+   *
+   * @param parentId the parent of the node, or NONE for a root
+   * @param code     the code of the action leading to the node, or -1 for a root
+   * @return the id of the node
+   **/
+  public int add(int parentId, int code) {
+    if (size == parent.length << SHIFT)
+      grow();
+    int id = size++;
+    int c = id >>> SHIFT;
+    int i = id & MASK;
+    parent[c][i] = parentId;
+    action[c][i] = code;
+    firstChild[c][i] = NONE;
+    visits[c][i] = 0;
+    wins[c][i] = 0;
+    available[c][i] = 0;
+    if (parentId == NONE) {
+      nextSibling[c][i] = NONE;
+    } else {
+      nextSibling[c][i] = firstChild[parentId >>> SHIFT][parentId & MASK];
+      firstChild[parentId >>> SHIFT][parentId & MASK] = id;
+    }
+    return id;
+  }
+
+  // adds a chunk to every column
+  private void grow() {
+    int chunks = parent.length + 1;
+    parent = Arrays.copyOf(parent, chunks);
+    action = Arrays.copyOf(action, chunks);
+    firstChild = Arrays.copyOf(firstChild, chunks);
+    nextSibling = Arrays.copyOf(nextSibling, chunks);
+    visits = Arrays.copyOf(visits, chunks);
+    wins = Arrays.copyOf(wins, chunks);
+    available = Arrays.copyOf(available, chunks);
+    parent[chunks - 1] = new int[CHUNK];
+    action[chunks - 1] = new int[CHUNK];
+    firstChild[chunks - 1] = new int[CHUNK];
+    nextSibling[chunks - 1] = new int[CHUNK];
+    visits[chunks - 1] = new int[CHUNK];
+    wins[chunks - 1] = new int[CHUNK];
+    available[chunks - 1] = new int[CHUNK];
+  }
+
+  /**
+   * Finds the child of a node reached by an action
+   *
+   * @param node the node
+   * @param code the action code
+   * @return the child, or NONE if the action has not been tried
+   **/
+  public int child(int node, int code) {
+    for (int c = firstChild(node); c != NONE; c = nextSibling(c))
+      if (action(c) == code)
+        return c;
+    return NONE;
+  }
+
+  /**
+   * The child most visited among those for the given actions, being the most
+   * reliable choice at the end of a search. A tree kept from an earlier decision
+   * may have children for actions that are not legal now, which are passed over.
+   *
+   * @param node    the node
+   * @param actions the codes of the actions to choose between
+   * @param n       the number of actions
+   * @return the child, or NONE if none of the actions have been tried
+   **/
+  public int mostVisited(int node, int[] actions, int n) {
+    int best = NONE;
+    for (int c = firstChild(node); c != NONE; c = nextSibling(c)) {
+      int code = action(c);
+      for (int i = 0; i < n; i++) {
+        if (actions[i] == code) {
+          if (best == NONE || visits(c) > visits(best))
+            best = c;
+          break;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Gives the upper confidence bound of a node, for its parent to choose between
+   * the children compatible with a determinization
+   *
+   * @param node        the node
+   * @param exploration the weight of the exploration term
+   * @return the bound, being infinite if the node has not been visited
+   **/
+  public double ucb(int node, double exploration) {
+    int c = node >>> SHIFT;
+    int i = node & MASK;
+    int v = visits[c][i];
+    if (v == 0)
+      return Double.POSITIVE_INFINITY;
+    return (double) wins[c][i] / v + exploration * Math.sqrt(Math.log(available[c][i]) / v);
+  }
+
+  /**
+   * Records that the action of a node was legal when its parent was visited
+   *
+   * @param node the node
+   **/
+  public void markAvailable(int node) {
+    available[node >>> SHIFT][node & MASK]++;
+  }
+
+  /**
+   * Records the result of a visit
+   *
+   * @param node the node
+   * @param won  true if the player who made the action of the node won the round
+   **/
+  public void update(int node, boolean won) {
+    visits[node >>> SHIFT][node & MASK]++;
+    if (won)
+      wins[node >>> SHIFT][node & MASK]++;
+  }
+
+  /**
+   * Copies the subtree under a node into another arena, which is emptied first,
+   * so the rest of this tree can be dropped by resetting it
+   *
+   * @param node the root of the subtree
+   * @param into the arena to copy to
+   * @return the id of the copied root in the other arena, with no parent
+   **/
+  public int compact(int node, NodeArena into) {
+    into.reset();
+    return copy(node, NONE, into);
+  }
+
+  private int copy(int node, int parentId, NodeArena into) {
+    int id = into.add(parentId, action(node));
+    int c = id >>> SHIFT;
+    int i = id & MASK;
+    into.visits[c][i] = visits(node);
+    into.wins[c][i] = wins(node);
+    into.available[c][i] = available[node >>> SHIFT][node & MASK];
+    for (int child = firstChild(node); child != NONE; child = nextSibling(child))
+      copy(child, id, into);
+    return id;
+  }
+
+  public int parent(int node) {
+    return parent[node >>> SHIFT][node & MASK];
+  }
+
+  /** @return the code of the action leading to the node, or -1 at a root **/
+  public int action(int node) {
+    return action[node >>> SHIFT][node & MASK];
+  }
+
+  public int firstChild(int node) {
+    return firstChild[node >>> SHIFT][node & MASK];
+  }
+
+  public int nextSibling(int node) {
+    return nextSibling[node >>> SHIFT][node & MASK];
+  }
+
+  public int visits(int node) {
+    return visits[node >>> SHIFT][node & MASK];
+  }
+
+  public int wins(int node) {
+    return wins[node >>> SHIFT][node & MASK];
+  }
+}
@@ -0,0 +1,900 @@
+package agents;
+
+import java.util.random.RandomGenerator;
+
+import loveletter.*;
+
+/**
+ * A compact representation of the game engine's view of a single round, used
+ * by the search agents for simulation. It implements the same rules as
+ * {@link State#update}, but keeps every hand, mask and counter packed into a
+ * single long, and the deck and the discard log in two more. Copying a state is
+ * therefore a handful of primitive writes rather than a dozen array
+ * allocations.
+ *
+ * Cards are stored as 4 bit codes, being the card's value (1-8), with 0 meaning
+ * no card. The layout of the info word is:
+ *
+ * <pre>
+ *  bits  0-15  the hand of each player (4 bits each, 0 if eliminated)
+ *  bits 16-31  known matrix, bit 16+4p+q is set if player p knows player q's card
+ *  bits 32-35  handmaid mask
+ *  bits 36-40  index of the top of the deck
+ *  bits 41-42  the next player to play
+ *  bits 43-47  number of cards in the discard log
+ *  bits 48-59  the score of each player (3 bits each)
+ *  bits 60-62  the number of players
+ * </pre>
+ **/
+public class PackedState {
+
+  private static final Card[] CARDS = Card.values();
+
+  // every card of the deck in order, as card codes
+  private static final long STANDARD_DECK = 0x8765544332211111L;
+
+  private static final int KNOWN = 16;
+  private static final int HANDMAID = 32;
+  private static final int TOP = 36;
+  private static final int NEXT = 41;
+  private static final int DISCARDS = 43;
+  private static final int SCORES = 48;
+  private static final int NUM = 60;
+
+  // the most deals of the unknown hands tried before drawing them one at a time
+  private static final int MAX_DEALS = 64;
+
+  private long info; // hands, masks and counters, as described above
+  private long deck; // the card at each position of the deck, 4 bits each
+  private long discards; // every card discarded this round, in the order they were discarded
+  private int owners; // the player who discarded each card in the discard log, 2 bits each
+  private Workspace work; // the buffers of determinize, made on its first call, and never copied
+
+  // the buffers determinize deals with, sized once for any position, so only
+  // the states that are determinized pay for them
+  private static final class Workspace {
+    final int[] counts = new int[CARDS.length]; // the copies of each card left to deal
+    final int[] pool = new int[16]; // the cards left to deal
+    final int[] unknown = new int[4]; // the players whose hands are dealt
+    final int[] hands = new int[4]; // the hands of a deal, for checking against the evidence
+    final Card[] pile = new Card[16]; // a player's discards, newest first
+  }
+
+  /**
+   * Constructs an empty state for the given number of players. The state must be
+   * dealt or determinized before it is used.
+   *
+   * @param num the number of players in the game (2, 3 or 4)
+   * @throws IllegalArgumentException if num is out of range.
+   **/
+  public PackedState(int num) {
+    if (num < 2 || num > 4)
+      throw new IllegalArgumentException("incorrect number of players");
+    info = (long) num << NUM;
+  }
+
+  /**
+   * Copy constructor
+   *
+   * @param s the state to copy
+   **/
+  public PackedState(PackedState s) {
+    copyFrom(s);
+  }
+
+  /**
+   * Overwrites this state with the contents of another state.
+   *
+   * @param s the state to copy
+   **/
+  public void copyFrom(PackedState s) {
+    info = s.info;
+    deck = s.deck;
+    discards = s.discards;
+    owners = s.owners;
+  }
+
+  /**
+   * Overwrites this state with one stored in columns by store, so many states
+   * can be kept in a few primitive arrays.
+   *
+   * @param info     the column of info words
+   * @param deck     the column of decks
+   * @param discards the column of discard logs
+   * @param owners   the column of discard owners
+   * @param i        the index of the state in the columns
+   **/
+  void load(long[] info, long[] deck, long[] discards, int[] owners, int i) {
+    this.info = info[i];
+    this.deck = deck[i];
+    this.discards = discards[i];
+    this.owners = owners[i];
+  }
+
+  /**
+   * Writes this state into columns, to be read back by load.
+   *
+   * @param info     the column of info words
+   * @param deck     the column of decks
+   * @param discards the column of discard logs
+   * @param owners   the column of discard owners
+   * @param i        the index of the state in the columns
+   **/
+  void store(long[] info, long[] deck, long[] discards, int[] owners, int i) {
+    info[i] = this.info;
+    deck[i] = this.deck;
+    discards[i] = this.discards;
+    owners[i] = this.owners;
+  }
+
+  /**
+   * Resets the state to a new round dealt from a freshly shuffled deck, using a
+   * Fisher-Yates shuffle of the packed deck. The first player will start.
+   *
+   * @param rand the random number generator used to shuffle the deck
+   **/
+  public void deal(RandomGenerator rand) {
+    int num = numPlayers();
+    info = (long) num << NUM;
+    deck = STANDARD_DECK;
+    discards = 0;
+    owners = 0;
+    for (int i = 15; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      long x = ((deck >>> (i << 2)) ^ (deck >>> (j << 2))) & 0xF;
+      deck ^= (x << (i << 2)) | (x << (j << 2));
+    }
+    for (int p = 0; p < num; p++) {
+      setHand(p, deckAt(p));
+      setKnown(p, p, true);
+    }
+    setTop(num);
+  }
+
+  /**
+   * Resets the state to a random deal that is consistent with what a player can
+   * observe, part way through a round. The observing player holds their known
+   * card, and has just drawn the given card. Opponents' cards are taken from the
+   * observer's knowledge where known, and the remaining unseen cards are shuffled
+   * into the other hands and the deck.
+   *
+   * @param view  the observing player's state
+   * @param drawn the card the observing player has just drawn
+   * @param rand  the random number generator used to shuffle the unseen cards
+   **/
+  public void determinize(State view, Card drawn, RandomGenerator rand) {
+    determinize(view, drawn, rand, null, null);
+  }
+
+  /**
+   * Resets the state to a random deal that is consistent with what a player can
+   * observe and with the evidence they have gathered, part way through a round.
+   * The unknown hands are drawn from the unseen cards and dealt again until the
+   * deal is consistent with the evidence. If that keeps failing, for example
+   * because the evidence contradicts itself, each unknown hand is drawn from the
+   * cards the evidence allows for that player, where there are any.
+   *
+   * @param view     the observing player's state
+   * @param drawn    the card the observing player has just drawn
+   * @param rand     the random number generator used to shuffle the unseen cards
+   * @param evidence the evidence gathered by the observer, or null for none
+   **/
+  public void determinize(State view, Card drawn, RandomGenerator rand, Evidence evidence) {
+    determinize(view, drawn, rand, evidence, null);
+  }
+
+  /**
+   * Resets the state to a random deal that is consistent with a player's
+   * beliefs, part way through a round, as determinize with evidence does. The
+   * hands the beliefs know, including those inferred, and the unseen cards, are
+   * read from the beliefs rather than from the player's state.
+   *
+   * @param view    the observing player's state
+   * @param drawn   the card the observing player has just drawn, which the
+   *                beliefs must have been told of
+   * @param rand    the random number generator used to shuffle the unseen cards
+   * @param beliefs the beliefs of the observer
+   **/
+  public void determinize(State view, Card drawn, RandomGenerator rand, BeliefTracker beliefs) {
+    determinize(view, drawn, rand, beliefs.evidence(), beliefs);
+  }
+
+  /**
+   * Resets the state to a given deal consistent with a player's beliefs. The
+   * hands the beliefs know are dealt as determinize does, and the hidden cards,
+   * those the beliefs do not place, are dealt from an arrangement of them: the
+   * first to the first player in turn order whose hand is unknown, and so on,
+   * with the rest forming the deck. The first few cards are dealt in place, being
+   * either some of the unknown hands or every card. The rest are shuffled, the
+   * remaining unknown hands being dealt again until they are consistent with the
+   * evidence, as determinize does. The arrangement itself is unchanged.
+   *
+   * @param view    the observing player's state
+   * @param drawn   the card the observing player has just drawn, which the
+   *                beliefs must have been told of
+   * @param beliefs the beliefs of the observer
+   * @param cards   holds the arrangement, the value of each hidden card, from
+   *                index from on, in the counts given by beliefs.hiddenCounts
+   * @param from    the index of the first card of the arrangement
+   * @param fixed   the number of cards at the start of the arrangement to deal
+   *                in place, at most the number of unknown hands, or all of them
+   * @param rand    the random number generator used to shuffle the rest
+   **/
+  public void deal(State view, Card drawn, BeliefTracker beliefs, int[] cards, int from, int fixed,
+      RandomGenerator rand) {
+    determinize(view, drawn, rand, beliefs.evidence(), beliefs, cards, from, fixed);
+  }
+
+  private void determinize(State view, Card drawn, RandomGenerator rand, Evidence evidence, BeliefTracker beliefs) {
+    determinize(view, drawn, rand, evidence, beliefs, null, 0, 0);
+  }
+
+  private void determinize(State view, Card drawn, RandomGenerator rand, Evidence evidence, BeliefTracker beliefs,
+      int[] cards, int from, int fixed) {
+    int num = view.numPlayers();
+    int me = view.getPlayerIndex();
+    info = (long) num << NUM;
+    deck = 0;
+    discards = 0;
+    owners = 0;
+    int top = 16 - view.deckSize();
+    setTop(top);
+    setNext(me);
+    deck |= (long) code(drawn) << ((top - 1) << 2);
+
+    if (work == null)
+      work = new Workspace();
+    // remove every card we can account for from the unseen cards, and pool the rest
+    int[] counts = beliefs != null ? beliefs.hiddenCounts(work.counts) : view.unseenCounts(work.counts);
+    for (int p = 0; p < num; p++) {
+      setKnown(p, p, true);
+      if (view.eliminated(p))
+        continue;
+      Card c = beliefs != null ? beliefs.known(p) : view.getCard(p);
+      if (c != null) {
+        setHand(p, code(c));
+        setKnown(me, p, true);
+        if (beliefs == null)
+          counts[c.ordinal()]--;
+      }
+    }
+    int[] pool = work.pool;
+    int size = 0;
+    for (int c = 0; c < counts.length; c++)
+      for (int i = 0; i < counts[c]; i++)
+        pool[size++] = c + 1;
+    int kept = 0; // the cards at the front of the pool to deal in place
+    if (cards != null) {
+      System.arraycopy(cards, from, pool, 0, size);
+      kept = fixed;
+    }
+    int[] unknown = work.unknown;
+    int hidden = 0;
+    for (int p = 0; p < num; p++)
+      if (!view.eliminated(p) && hand(p) == 0)
+        unknown[hidden++] = p;
+
+    // draw the unknown hands not dealt in place from the front of the pool,
+    // dealing again until the hands are consistent with the evidence
+    int start = Math.min(kept, hidden);
+    if (start == hidden) {
+      // every hand is dealt in place
+    } else if (evidence == null || evidence.isEmpty()) {
+      shuffle(pool, start, hidden, size, rand);
+    } else {
+      int[] hands = work.hands;
+      for (int p = 0; p < num; p++)
+        hands[p] = hand(p);
+      boolean consistent = false;
+      for (int attempt = 0; attempt < MAX_DEALS && !consistent; attempt++) {
+        shuffle(pool, start, hidden, size, rand);
+        for (int i = start; i < hidden; i++)
+          hands[unknown[i]] = pool[i];
+        consistent = evidence.consistent(hands);
+      }
+      if (!consistent)
+        for (int i = start; i < hidden; i++)
+          pick(pool, i, size, unknown[i], evidence, rand);
+    }
+    int k = 0;
+    for (int i = 0; i < hidden; i++)
+      setHand(unknown[i], pool[k++]);
+
+    // shuffle what is left into the deck
+    shuffle(pool, Math.max(hidden, kept), size, size, rand);
+    for (int i = top; i < 16; i++)
+      deck |= (long) pool[k++] << (i << 2);
+
+    // rebuild the discard log, oldest card first
+    Card[] pile = work.pile;
+    for (int p = 0; p < num; p++) {
+      int n = 0;
+      java.util.Iterator<Card> it = view.getDiscards(p);
+      while (it.hasNext())
+        pile[n++] = it.next();
+      while (n > 0)
+        discard(p, code(pile[--n]));
+      if (view.handmaid(p))
+        info |= 1L << (HANDMAID + p);
+    }
+  }
+
+  // moves a random choice of the cards in pool[from..size) into each of the
+  // positions from..to, a partial Fisher-Yates shuffle
+  private static void shuffle(int[] pool, int from, int to, int size, RandomGenerator rand) {
+    for (int i = from; i < to && i < size - 1; i++) {
+      int j = i + rand.nextInt(size - i);
+      int tmp = pool[i];
+      pool[i] = pool[j];
+      pool[j] = tmp;
+    }
+  }
+
+  // moves a random card of pool[i..size) that the evidence allows the player to
+  // hold into position i, or any card if none is allowed
+  private static void pick(int[] pool, int i, int size, int player, Evidence evidence, RandomGenerator rand) {
+    int allowed = 0;
+    for (int j = i; j < size; j++)
+      if (evidence.allows(player, pool[j]))
+        allowed++;
+    int j = i;
+    if (allowed == 0) {
+      j += rand.nextInt(size - i);
+    } else {
+      for (int n = rand.nextInt(allowed); n > 0 || !evidence.allows(player, pool[j]); j++)
+        if (evidence.allows(player, pool[j]))
+          n--;
+    }
+    int tmp = pool[i];
+    pool[i] = pool[j];
+    pool[j] = tmp;
+  }
+
+  /**
+   * Draws a card for a player from the shuffled deck. The card is no longer
+   * available on the top of the deck.
+   *
+   * @return the top card of the deck
+   **/
+  public Card drawCard() {
+    int top = top();
+    setTop(top + 1);
+    return CARDS[deckAt(top) - 1];
+  }
+
+  /**
+   * Checks to see if an action is legal given the current state of the game, for
+   * an agent who has just drawn a card. Follows the same rules as
+   * {@link State#legalAction}.
+   *
+   * @param act   the action to be performed
+   * @param drawn the card drawn by the playing agent.
+   * @return true if and only if the action is legal
+   **/
+  public boolean legalAction(Action act, Card drawn) {
+    if (act == null)
+      return false;
+    return legal(act.player(), act.target(), code(act.card()), code(drawn));
+  }
+
+  private boolean legal(int a, int t, int c, int drawn) {
+    int held = hand(a);
+    if (held != c && drawn != c)
+      return false;
+    if (next() != a)
+      return false;
+    if ((held == 7 || drawn == 7) && (c == 6 || c == 5))
+      return false;
+    if (t != -1) {
+      if (eliminated(t))
+        return false;
+      if (c == 5 && a == t)
+        return true;
+      if (handmaid(t) && (!allHandmaid(a) || c == 5))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Enumerates every legal action for the player to move, who has just drawn a
+   * card, into a buffer supplied by the caller, as int encoded actions (see
+   * Action.encode). Actions are listed in order of the card played, so a Princess
+   * action is always last. No objects are created and no exceptions are thrown.
+   *
+   * @param actions the buffer to fill, which must have room for
+   *                State.MAX_ACTIONS actions
+   * @param drawn   the card drawn by the playing agent.
+   * @return the number of legal actions written to the buffer
+   **/
+  public int legalActions(int[] actions, Card drawn) {
+    int a = next();
+    int held = hand(a);
+    int d = code(drawn);
+    if (held == 0 || d == 0)
+      return 0;
+    int n = legalActions(actions, 0, a, Math.min(held, d), held, d);
+    if (held != d)
+      n = legalActions(actions, n, a, Math.max(held, d), held, d);
+    return n;
+  }
+
+  private int legalActions(int[] actions, int n, int a, int c, int held, int drawn) {
+    if ((held == 7 || drawn == 7) && (c == 6 || c == 5))
+      return n;// the countess must be played
+    Card card = CARDS[c - 1];
+    if (c == 4 || c >= 7) {
+      actions[n++] = Action.encode(card, a, -1, null);
+      return n;
+    }
+    boolean all = allHandmaid(a);
+    for (int t = 0; t < numPlayers(); t++) {
+      if (eliminated(t))
+        continue;
+      if (t == a) {
+        if (c == 5)
+          actions[n++] = Action.encode(card, a, t, null);
+        continue;
+      }
+      if (handmaid(t) && (!all || c == 5))
+        continue;
+      if (c == 1)
+        for (int g = 1; g < CARDS.length; g++)
+          actions[n++] = Action.encode(card, a, t, CARDS[g]);
+      else
+        actions[n++] = Action.encode(card, a, t, null);
+    }
+    return n;
+  }
+
+  /**
+   * Executes an int encoded action, as produced by legalActions.
+   *
+   * @param action the encoded action
+   * @param drawn  the card drawn by the actor
+   * @return true if the action was legal and has been executed
+   **/
+  public boolean play(int action, Card drawn) {
+    return play(Action.playerOf(action), Action.cardOf(action), Action.targetOf(action), Action.guessOf(action),
+        drawn);
+  }
+
+  /**
+   * Executes the given action of a player.
+   *
+   * @param act  the action to be performed
+   * @param card the card drawn by the actor
+   * @throws IllegalActionException if the action is against the rules.
+   **/
+  public void update(Action act, Card card) throws IllegalActionException {
+    if (!play(act.player(), act.card(), act.target(), act.guess(), card))
+      throw new IllegalActionException("Illegal action in simulation");
+  }
+
+  /**
+   * Executes the given action of a player, returning a record from which the
+   * exact prior state can be restored with undo. Moves must be undone in the
+   * reverse order they were applied.
+   *
+   * @param act  the action to be performed
+   * @param card the card drawn by the actor
+   * @return the undo record for the action
+   * @throws IllegalActionException if the action is against the rules.
+   **/
+  public long apply(Action act, Card card) throws IllegalActionException {
+    long record = mark();
+    update(act, card);
+    return record;
+  }
+
+  /**
+   * Gives an undo record for the current position. Since the deck never changes
+   * and the discard log is only ever appended to, the record is just the info
+   * word, so a mark taken before a draw will also undo the draw.
+   *
+   * @return the undo record for the current position
+   **/
+  public long mark() {
+    return info;
+  }
+
+  /**
+   * Restores the state to the position the record was taken in.
+   *
+   * @param record the undo record returned by apply or mark
+   **/
+  public void undo(long record) {
+    info = record;
+  }
+
+  /**
+   * Executes an action described by its parts, without constructing an Action.
+   * The state is left unchanged if the action is not legal, including the rules
+   * enforced by the Action class. The target is ignored for cards without one.
+   *
+   * @param a     the acting player
+   * @param card  the card played
+   * @param t     the targeted player, or -1 if the card has no target
+   * @param guess the guessed card for a Guard, or null
+   * @param drawn the card drawn by the actor
+   * @return true if the action was legal and has been executed
+   **/
+  public boolean play(int a, Card card, int t, Card guess, Card drawn) {
+    int c = code(card);
+    int d = code(drawn);
+    if (c == 4 || c >= 7)
+      t = -1;
+    else if (t == -1 || (t == a && c != 5) || (c == 1 && code(guess) < 2))
+      return false;
+    if (!legal(a, t, c, d))
+      return false;
+    discard(a, c);
+    int num = numPlayers();
+    if (c == hand(a)) {
+      setHand(a, d);
+      for (int p = 0; p < num; p++)
+        if (p != a)
+          setKnown(p, a, false);
+    }
+    info &= ~(1L << (HANDMAID + a));
+    switch (c) {
+    case 1:
+      if (!allHandmaid(a) && code(guess) == hand(t))
+        eliminate(t);
+      break;
+    case 2:
+      if (!allHandmaid(a))
+        setKnown(a, t, true);
+      break;
+    case 3:
+      if (!allHandmaid(a)) {
+        if (hand(a) > hand(t))
+          eliminate(t);
+        else if (hand(a) < hand(t))
+          eliminate(a);
+        else {
+          setKnown(a, t, true);
+          setKnown(t, a, true);
+        }
+      }
+      break;
+    case 4:
+      info |= 1L << (HANDMAID + a);
+      break;
+    case 5:
+      if (hand(t) == 8)
+        eliminate(t);
+      else {
+        discard(t, hand(t));
+        int top = top();
+        setHand(t, deckAt(top));
+        setTop(top + 1);
+        for (int p = 0; p < num; p++)
+          if (p != t)
+            setKnown(p, t, false);
+      }
+      break;
+    case 6:
+      if (!allHandmaid(a)) {
+        setKnown(a, t, true);
+        setKnown(t, a, true);
+        for (int p = 0; p < num; p++) {
+          if (p != t && p != a) {
+            boolean tmp = known(p, t);
+            setKnown(p, t, known(p, a));
+            setKnown(p, a, tmp);
+          }
+        }
+        int tmp = hand(a);
+        setHand(a, hand(t));
+        setHand(t, tmp);
+      }
+      break;
+    case 8:
+      eliminate(a);
+      break;
+    default:
+      // countess requires no update
+    }
+    if (roundOver()) {
+      info |= 0xFFFFL << KNOWN;
+      int winner = roundWinner();
+      info += 1L << (SCORES + 3 * winner);
+      setNext(winner);
+    } else {
+      int next = (next() + 1) % num;
+      while (eliminated(next))
+        next = (next + 1) % num;
+      setNext(next);
+    }
+    return true;
+  }
+
+  // discards the player's hand, and removes them from the round
+  private void eliminate(int p) {
+    discard(p, hand(p));
+    setHand(p, 0);
+    for (int q = 0; q < numPlayers(); q++)
+      setKnown(q, p, true);
+  }
+
+  // appends a card to the discard log
+  private void discard(int p, int c) {
+    int n = (int) (info >>> DISCARDS) & 0x1F;
+    int shift = n << 2;
+    discards = discards & ~(0xFL << shift) | ((long) c << shift);
+    owners = owners & ~(3 << (n << 1)) | (p << (n << 1));
+    info += 1L << DISCARDS;
+  }
+
+  /**
+   * get the card held by the specified player
+   *
+   * @param playerIndex the player for which we seek the card
+   * @return the card the player currently holds, or null if they are eliminated
+   **/
+  public Card getCard(int playerIndex) {
+    int c = hand(playerIndex);
+    return c == 0 ? null : CARDS[c - 1];
+  }
+
+  /**
+   * returns true if the nominated player is eliminated in the round
+   *
+   * @param player the player being checked
+   * @return true if and only if the player has been eliminated in the round.
+   **/
+  public boolean eliminated(int player) {
+    return hand(player) == 0;
+  }
+
+  /**
+   * Checks whether one player knows the card of another
+   *
+   * @param observer the player who may know the card
+   * @param player   the player holding the card
+   * @return true if and only if observer knows player's card
+   **/
+  public boolean known(int observer, int player) {
+    return (info & (1L << (KNOWN + (observer << 2) + player))) != 0;
+  }
+
+  /**
+   * Gives the next player to play in the round
+   *
+   * @return the index of the next player to play
+   **/
+  public int nextPlayer() {
+    return next();
+  }
+
+  /**
+   * Gives the number of players in the game
+   *
+   * @return the number of players in the game
+   **/
+  public int numPlayers() {
+    return (int) (info >>> NUM) & 7;
+  }
+
+  /**
+   * helper method to determine if the nominated player is protected by the
+   * handmaid
+   *
+   * @return true if and only if the index corresponds to a player who is
+   *         protected by the handmaid
+   **/
+  public boolean handmaid(int player) {
+    if (player < 0 || player >= numPlayers())
+      return false;
+    return (info & (1L << (HANDMAID + player))) != 0;
+  }
+
+  /**
+   * helper method to check if every other player other than the specified player
+   * is either eliminated or protected by the handmaid
+   *
+   * @param player the player who would be playing a card
+   * @return true if and only if every player other than the nominated player is
+   *         eliminated or protected by the handmaid
+   **/
+  public boolean allHandmaid(int player) {
+    for (int i = 0; i < numPlayers(); i++)
+      if (i != player && !eliminated(i) && !handmaid(i))
+        return false;
+    return true;
+  }
+
+  /**
+   * gives the remaining size of the deck, including the burnt card
+   *
+   * @return the number of cards not in players hands or discarded.
+   **/
+  public int deckSize() {
+    return 16 - top();
+  }
+
+  /**
+   * Sums the values of the cards a player has discarded this round, used to break
+   * ties at the end of the round.
+   *
+   * @param player the player whose discards are summed
+   * @return the total value of the player's discard pile
+   **/
+  public int discardValue(int player) {
+    int n = (int) (info >>> DISCARDS) & 0x1F;
+    int dv = 0;
+    for (int i = 0; i < n; i++)
+      if (((owners >>> (i << 1)) & 3) == player)
+        dv += (int) (discards >>> (i << 2)) & 0xF;
+    return dv;
+  }
+
+  /**
+   * Counts the copies of a card discarded this round, by any player.
+   *
+   * @param c the card
+   * @return the number of copies in the discard log
+   **/
+  public int discarded(Card c) {
+    int n = (int) (info >>> DISCARDS) & 0x1F;
+    int code = code(c);
+    int count = 0;
+    for (int i = 0; i < n; i++)
+      if (((discards >>> (i << 2)) & 0xF) == code)
+        count++;
+    return count;
+  }
+
+  /**
+   * Counts the copies of each card left in the deck, including the card that is
+   * never drawn.
+   *
+   * @param counts an array of at least 8 elements to fill, indexed by card
+   *               ordinal
+   * @return the number of cards left in the deck
+   **/
+  int remaining(int[] counts) {
+    java.util.Arrays.fill(counts, 0, CARDS.length, 0);
+    for (int i = top(); i < 16; i++)
+      counts[deckAt(i) - 1]++;
+    return deckSize();
+  }
+
+  /**
+   * Moves a copy of a card left in the deck to the top of the deck, swapping it
+   * with the card there, so it is the next card drawn. An undo record does not
+   * restore the order of the deck.
+   *
+   * @param c the card, which must be left in the deck
+   **/
+  void raise(Card c) {
+    int top = top();
+    int i = top;
+    while (deckAt(i) != code(c))
+      i++;
+    long x = ((deck >>> (i << 2)) ^ (deck >>> (top << 2))) & 0xF;
+    deck ^= (x << (i << 2)) | (x << (top << 2));
+  }
+
+  /**
+   * Gives the first word of a key for the position, for telling apart positions
+   * whose rounds may play out differently when the order of the deck left is not
+   * known. Two positions with equal keys, both words, have the same hands,
+   * handmaids, player to move and cards left in the deck, and the same total of
+   * discards for each player, but may differ in what each player knows, the
+   * scores, and the order of the deck and the discard log.
+   *
+   * @return the first word of the key, never 0
+   **/
+  long positionKey() {
+    return info & ~(0xFFFFL << KNOWN) & ~(0xFFFL << SCORES);
+  }
+
+  /**
+   * Gives the second word of the key of positionKey
+   *
+   * @return the count of each card left in the deck, and each player's total of
+   *         discards
+   **/
+  long positionRest() {
+    long rest = 0;
+    for (int i = top(); i < 16; i++)
+      rest += 1L << ((deckAt(i) - 1) * 3);
+    for (int p = 0; p < numPlayers(); p++)
+      rest |= (long) discardValue(p) << (24 + 8 * p);
+    return rest;
+  }
+
+  /**
+   * Tests to see if the round is over, either by all but one player being
+   * eliminated or by all but one card being drawn from the deck.
+   *
+   * @return true if and only if the round is over
+   **/
+  public boolean roundOver() {
+    int remaining = 0;
+    for (int i = 0; i < numPlayers(); i++)
+      if (!eliminated(i))
+        remaining++;
+    return remaining == 1 || deckSize() < 2;
+  }
+
+  /**
+   * helper method to determine the winner of the round. In the unlikely event of
+   * a total draw, the player with the smallest index is the winner.
+   *
+   * @return the index of the winner, or -1 if the round is not yet over.
+   **/
+  public int roundWinner() {
+    if (!roundOver())
+      return -1;
+    int winner = -1;
+    int topCard = -1;
+    int discardValue = -1;
+    for (int p = 0; p < numPlayers(); p++) {
+      if (!eliminated(p)) {
+        int dv = discardValue(p);
+        if (hand(p) > topCard || (hand(p) == topCard && dv > discardValue)) {
+          winner = p;
+          topCard = hand(p);
+          discardValue = dv;
+        }
+      }
+    }
+    return winner;
+  }
+
+  /**
+   * returns the number of rounds the specified player has won in this state
+   *
+   * @param player the player whose score is sought
+   * @return the score of the specified player
+   **/
+  public int score(int player) {
+    if (player < 0 || player >= numPlayers())
+      return 0;
+    return (int) (info >>> (SCORES + 3 * player)) & 7;
+  }
+
+  /*--------------------------------------------------------------------------------------------------------------
+  BIT FIELD HELPERS
+  ---------------------------------------------------------------------------------------------------------------*/
+
+  private static int code(Card c) {
+    return c == null ? 0 : c.value();
+  }
+
+  private int hand(int p) {
+    return (int) (info >>> (p << 2)) & 0xF;
+  }
+
+  private void setHand(int p, int c) {
+    info = info & ~(0xFL << (p << 2)) | ((long) c << (p << 2));
+  }
+
+  private void setKnown(int observer, int player, boolean k) {
+    long bit = 1L << (KNOWN + (observer << 2) + player);
+    info = k ? info | bit : info & ~bit;
+  }
+
+  private int top() {
+    return (int) (info >>> TOP) & 0x1F;
+  }
+
+  private void setTop(int top) {
+    info = info & ~(0x1FL << TOP) | ((long) top << TOP);
+  }
+
+  private int next() {
+    return (int) (info >>> NEXT) & 3;
+  }
+
+  private void setNext(int p) {
+    info = info & ~(3L << NEXT) | ((long) p << NEXT);
+  }
+
+  private int deckAt(int i) {
+    return (int) (deck >>> (i << 2)) & 0xF;
+  }
+}
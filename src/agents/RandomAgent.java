@@ -1,6 +1,7 @@
 package agents;
 import loveletter.*;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 /**
  * An interface for representing an agent in the game Love Letter
@@ -8,13 +9,30 @@ import java.util.Random;
  * */
 public class RandomAgent implements Agent{
 
-  private Random rand;
+  private RandomGenerator rand;
   private State current;
   private int myIndex;
+  private int[] actions = new int[State.MAX_ACTIONS];//buffer for the legal actions each turn
 
   //0 place default constructor
   public RandomAgent(){
-    rand  = new Random();
+    this(new SplittableRandom());
+  }
+
+  /**
+   * Constructs an agent drawing its moves from the given generator
+   * @param rand the random number generator, used by no other thread
+   **/
+  public RandomAgent(RandomGenerator rand){
+    this.rand = rand;
+  }
+
+  /**
+   * Sets the random number generator the agent draws its moves from
+   * @param random the generator, used by no other thread
+   **/
+  public void setRandom(RandomGenerator random){
+    rand = random;
   }
 
   /**
@@ -48,41 +66,9 @@ public class RandomAgent implements Agent{
    * @throws IllegalActionException when the Action produced is not legal.
    * */
   public Action playCard(Card c){
-    Action act = null;
-    Card play;
-    while(!current.legalAction(act, c)){
-      if(rand.nextDouble()<0.5) play= c;
-      else play = current.getCard(myIndex);
-      int target = rand.nextInt(current.numPlayers());
-      try{
-        switch(play){
-          case GUARD:
-            act = Action.playGuard(myIndex, target, Card.values()[rand.nextInt(7)+1]);
-            break;
-          case PRIEST:
-            act = Action.playPriest(myIndex, target);
-            break;
-          case BARON:  
-            act = Action.playBaron(myIndex, target);
-            break;
-          case HANDMAID:
-            act = Action.playHandmaid(myIndex);
-            break;
-          case PRINCE:  
-            act = Action.playPrince(myIndex, target);
-            break;
-          case KING:
-            act = Action.playKing(myIndex, target);
-            break;
-          case COUNTESS:
-            act = Action.playCountess(myIndex);
-            break;
-          default:
-            act = null;//never play princess
-        }
-      }catch(IllegalActionException e){/*do nothing*/}
-    }
-    return act;
+    int n = current.legalActions(actions, c);
+    if(n>1 && Action.cardOf(actions[n-1])==Card.PRINCESS) n--;//never play princess
+    return Action.fromCode(actions[rand.nextInt(n)]);
   }
 }
 
@@ -0,0 +1,126 @@
+package agents;
+
+/**
+ * Plays many rounds out together, in lockstep. The states of the batch are
+ * kept in primitive columns, one per word of a PackedState, and each pass
+ * advances every round still being played by one move, dropping rounds from
+ * the pass as they finish. Moves are chosen by a RolloutKernel, so a batch
+ * plays exactly as the kernel's own rollouts do, and creates no objects once
+ * constructed.
+ *
+ * A batch is filled with add, played with run, and read with outcome, and is
+ * not thread safe.
+ *
+ * Each move is still played on one state at a time, copied out of the columns
+ * and back, so a batch costs a little more per rollout than
+ * RolloutKernel.outcome; RolloutBench measures both. What a batch gives the
+ * search is the selection of many leaves before their rollouts are played.
+ **/
+public class RolloutBatch {
+
+  private final RolloutKernel kernel;
+  private final PackedState state = new PackedState(2); // every field is overwritten by load
+
+  // the columns of the states in the batch
+  private final long[] info;
+  private final long[] deck;
+  private final long[] discards;
+  private final int[] owners;
+
+  private final int[] player; // the player whose outcome is sought in each round
+  private final int[] outcome; // 1 if the player won the round, otherwise 0, once run
+  private final int[] live; // the rounds still being played during run
+  private int size;
+
+  /**
+   * Constructs an empty batch
+   *
+   * @param capacity the most rounds the batch can hold
+   * @param kernel   the kernel choosing the moves
+   **/
+  public RolloutBatch(int capacity, RolloutKernel kernel) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity must be at least 1");
+    this.kernel = kernel;
+    info = new long[capacity];
+    deck = new long[capacity];
+    discards = new long[capacity];
+    owners = new int[capacity];
+    player = new int[capacity];
+    outcome = new int[capacity];
+    live = new int[capacity];
+  }
+
+  /** @return the most rounds the batch can hold **/
+  public int capacity() {
+    return info.length;
+  }
+
+  /** @return the number of rounds in the batch **/
+  public int size() {
+    return size;
+  }
+
+  /** @return true if no more rounds can be added **/
+  public boolean full() {
+    return size == info.length;
+  }
+
+  /** Empties the batch **/
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Adds a copy of a state to be played out. The state itself is unchanged.
+   *
+   * @param from the state to start from, with the next player about to draw
+   * @param p    the player whose outcome is sought
+   * @return the index of the round in the batch, for outcome
+   * @throws IllegalStateException if the batch is full
+   **/
+  public int add(PackedState from, int p) {
+    if (full())
+      throw new IllegalStateException("batch is full");
+    from.store(info, deck, discards, owners, size);
+    player[size] = p;
+    outcome[size] = 0;
+    return size++;
+  }
+
+  /**
+   * Plays every round in the batch out, stopping each early if its player is
+   * eliminated, as RolloutKernel.outcome does
+   **/
+  public void run() {
+    int n = size;
+    for (int i = 0; i < n; i++)
+      live[i] = i;
+    while (n > 0) {
+      int i = 0;
+      while (i < n) {
+        int r = live[i];
+        state.load(info, deck, discards, owners, r);
+        int p = player[r];
+        if (state.roundOver() || state.eliminated(p)) {
+          outcome[r] = state.roundOver() && state.roundWinner() == p ? 1 : 0;
+          live[i] = live[--n];// the last live round takes this place in the pass
+          continue;
+        }
+        kernel.step(state);
+        state.store(info, deck, discards, owners, r);
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Gives the outcome of a round once the batch has been run
+   *
+   * @param i the index of the round, as returned by add
+   * @return 1 if the round's player won it, otherwise 0
+   **/
+  public int outcome(int i) {
+    return outcome[i];
+  }
+}
@@ -0,0 +1,133 @@
+package agents;
+
+import java.util.random.RandomGenerator;
+
+import loveletter.*;
+
+/**
+ * Plays rounds out to the end with random moves, for the rollouts of a search.
+ * A kernel keeps its own scratch state, action buffer and random number
+ * generator, so once constructed a playout creates no objects and throws no
+ * exceptions. A kernel is not thread safe: each searching thread needs its own.
+ *
+ * Under either policy a player never plays the Princess when they have another
+ * choice. The heuristic policy also never has a Guard guess a card of which
+ * every copy has been discarded or is in the guesser's hands, using only what
+ * the guesser could see.
+ **/
+public class RolloutKernel {
+
+  /** How the moves of a playout are chosen **/
+  public enum Policy {
+    /** uniformly among the legal moves **/
+    RANDOM,
+    /** uniformly among the legal moves, less guesses the guesser can rule out **/
+    HEURISTIC
+  }
+
+  private final RandomGenerator rand;
+  private final PackedState scratch = new PackedState(2); // every field is overwritten by copyFrom
+  private final int[] actions = new int[State.MAX_ACTIONS];
+  private Policy policy = Policy.RANDOM;
+
+  /**
+   * Constructs a kernel drawing its moves from the given generator
+   *
+   * @param rand the random number generator, used by no other thread
+   **/
+  public RolloutKernel(RandomGenerator rand) {
+    this.rand = rand;
+  }
+
+  /**
+   * Sets how the moves of each playout are chosen
+   *
+   * @param policy the policy
+   **/
+  public void setPolicy(Policy policy) {
+    this.policy = policy;
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Plays a copy of a state out, stopping early if the given player is
+   * eliminated. The state itself is unchanged.
+   *
+   * @param from   the state to start from, with the next player about to draw
+   * @param player the player whose outcome is sought
+   * @return 1 if the player wins the round, otherwise 0
+   **/
+  public int outcome(PackedState from, int player) {
+    PackedState s = scratch;
+    s.copyFrom(from);
+    while (!s.roundOver() && !s.eliminated(player))
+      step(s);
+    return s.roundOver() && s.roundWinner() == player ? 1 : 0;
+  }
+
+  /**
+   * Plays a state out in place
+   *
+   * @param s the state, with the next player about to draw, which is left at the
+   *          end of the round
+   * @return the index of the winner of the round
+   **/
+  public int winner(PackedState s) {
+    while (!s.roundOver())
+      step(s);
+    return s.roundWinner();
+  }
+
+  /**
+   * Draws a card for the next player and plays one of their moves
+   *
+   * @param s the state, which must not be over
+   **/
+  void step(PackedState s) {
+    Card topCard = s.drawCard();
+    int n = policy == Policy.HEURISTIC ? candidates(s, topCard, actions) : moves(s, topCard, actions);
+    s.play(actions[rand.nextInt(n)], topCard);
+  }
+
+  /**
+   * Finds the legal actions of the player to move, less playing the Princess
+   * when there is another choice
+   *
+   * @param s       the state
+   * @param drawn   the card the player drew
+   * @param actions the buffer to fill, with room for State.MAX_ACTIONS actions
+   * @return the number of actions written to the start of the buffer
+   **/
+  public static int moves(PackedState s, Card drawn, int[] actions) {
+    int count = s.legalActions(actions, drawn);
+    if (count > 1 && Action.cardOf(actions[count - 1]) == Card.PRINCESS)
+      count--;// never play princess
+    return count;
+  }
+
+  /**
+   * Finds the actions of the player to move worth considering, being those
+   * found by moves less Guard guesses of cards of which every copy has been
+   * discarded or is in the player's hands
+   *
+   * @param s       the state
+   * @param drawn   the card the player drew
+   * @param actions the buffer to fill, with room for State.MAX_ACTIONS actions
+   * @return the number of actions written to the start of the buffer
+   **/
+  public static int candidates(PackedState s, Card drawn, int[] actions) {
+    int n = moves(s, drawn, actions);
+    Card held = s.getCard(s.nextPlayer());
+    int kept = 0;
+    for (int i = 0; i < n; i++) {
+      Card guess = Action.guessOf(actions[i]);
+      if (guess == null
+          || s.discarded(guess) + (held == guess ? 1 : 0) + (drawn == guess ? 1 : 0) < guess.count())
+        actions[kept++] = actions[i];
+    }
+    return kept > 0 ? kept : n;
+  }
+}
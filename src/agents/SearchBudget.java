@@ -0,0 +1,108 @@
+package agents;
+
+/**
+ * A limit on how long a search may run, as a number of iterations, an amount
+ * of wall clock time, or both, whichever runs out first. Budgets are
+ * immutable, so one may be shared by many agents.
+ *
+ * Checking the budget is cheap: the clock is only read every few iterations,
+ * so a search may overrun a time budget by a few iterations.
+ */
+public final class SearchBudget {
+
+  // the clock is read when the iteration count is a multiple of this
+  private static final int CHECK_INTERVAL = 16;
+
+  private final long iterations;
+  private final long nanos;
+
+  private SearchBudget(long iterations, long nanos) {
+    this.iterations = iterations;
+    this.nanos = nanos;
+  }
+
+  /**
+   * A budget of a fixed number of iterations, however long they take.
+   *
+   * @param iterations the number of iterations, at least 1
+   * @return the budget
+   **/
+  public static SearchBudget iterations(long iterations) {
+    return new SearchBudget(Math.max(1, iterations), Long.MAX_VALUE);
+  }
+
+  /**
+   * A budget of wall clock time, however many iterations fit in it.
+   *
+   * @param millis the time allowed in milliseconds
+   * @return the budget
+   **/
+  public static SearchBudget time(long millis) {
+    return new SearchBudget(Long.MAX_VALUE, Math.max(0, millis) * 1000000L);
+  }
+
+  /**
+   * A budget that runs out after a number of iterations or an amount of time,
+   * whichever comes first.
+   *
+   * @param iterations the most iterations, at least 1
+   * @param millis     the most time in milliseconds
+   * @return the budget
+   **/
+  public static SearchBudget of(long iterations, long millis) {
+    return new SearchBudget(Math.max(1, iterations), Math.max(0, millis) * 1000000L);
+  }
+
+  /**
+   * Divides the budget between searches running side by side. The iterations
+   * are shared out, and each search gets all of the time.
+   *
+   * @param parts the number of searches
+   * @return the budget of each search
+   **/
+  public SearchBudget split(int parts) {
+    if (iterations == Long.MAX_VALUE || parts <= 1)
+      return this;
+    return new SearchBudget(Math.max(1, (iterations + parts - 1) / parts), nanos);
+  }
+
+  /**
+   * Gives the deadline of a search started now, to pass to exhausted.
+   *
+   * @return the deadline as a System.nanoTime value, or Long.MAX_VALUE if there
+   *         is no time limit
+   **/
+  public long deadline() {
+    return nanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + nanos;
+  }
+
+  /**
+   * Tests whether a search has used up the budget.
+   *
+   * @param done     the number of iterations completed
+   * @param deadline the deadline returned by deadline() when the search started
+   * @return true if and only if the search should stop
+   **/
+  public boolean exhausted(long done, long deadline) {
+    if (done >= iterations)
+      return true;
+    return deadline != Long.MAX_VALUE && done % CHECK_INTERVAL == 0 && System.nanoTime() - deadline >= 0;
+  }
+
+  /** @return the most iterations allowed, or Long.MAX_VALUE if there is no limit **/
+  public long maxIterations() {
+    return iterations;
+  }
+
+  /** @return the most time allowed in milliseconds, or Long.MAX_VALUE if there is no limit **/
+  public long maxMillis() {
+    return nanos == Long.MAX_VALUE ? Long.MAX_VALUE : nanos / 1000000L;
+  }
+
+  public String toString() {
+    String str = iterations == Long.MAX_VALUE ? "" : iterations + " iterations";
+    if (nanos != Long.MAX_VALUE)
+      str += (str.isEmpty() ? "" : " or ") + maxMillis() + "ms";
+    return str;
+  }
+}
@@ -0,0 +1,360 @@
+package agents;
+
+import java.util.random.RandomGenerator;
+
+import loveletter.*;
+
+/**
+ * Chooses the worlds a determinized search deals for one decision, and how many
+ * iterations it searches in each. Dealing each world independently leaves the
+ * share of worlds in which an opponent holds a given card to chance, and a rare
+ * but decisive hand, such as the Princess, may be searched far more or far less
+ * often than it should be.
+ *
+ * A schedule is planned from the player's beliefs in one of two ways:
+ *
+ * <ul>
+ * <li>When the hidden cards, those in the deck or in a hand the player does not
+ * know, can be arranged in no more distinct ways than there are worlds to
+ * search, every arrangement consistent with the Evidence is dealt exactly once,
+ * each being equally likely.</li>
+ * <li>Otherwise the worlds are stratified by the cards of the unknown hands,
+ * taking as many of those hands, in turn order, as leave no more strata than
+ * worlds. Each assignment of cards to those hands is a stratum, with the
+ * probability of dealing it consistently with the Evidence, summed over every
+ * way of dealing the other unknown hands. Every stratum gets a world, and the
+ * rest are shared out in proportion to their probability. The other unknown
+ * hands and the deck of each world are dealt at random, consistently with the
+ * Evidence.</li>
+ * </ul>
+ *
+ * Each world stands for a share of the probability, its weight, and is searched
+ * for a number of iterations in proportion to it. So a rare stratum given a
+ * world of its own is searched only for as long as its probability deserves,
+ * and the statistics of the tree remain an estimate over the beliefs.
+ *
+ * A schedule is read only once planned, so it may be shared by the threads of a
+ * search, each dealing worlds with its own state and random number generator.
+ **/
+public class WorldScheduler {
+
+  /** The most worlds a schedule holds; a longer search cycles through them **/
+  public static final int MAX_WORLDS = 1024;
+
+  private static final int CARDS = Card.values().length;
+
+  private int hidden; // the number of hidden cards
+  private int hands; // the number of unknown hands
+  private int fixed; // the number of cards of each arrangement dealt in place
+  private boolean exact; // whether every distinct world is scheduled once
+  private int size; // the number of worlds
+  private int[] cards = new int[0]; // the arrangement of the hidden cards of each world, hidden to a world
+  private int[] iterations = new int[0]; // the iterations to search in each world
+  private double[] weight = new double[0]; // the probability each world stands for
+
+  // scratch space for planning, reused from one plan to the next
+  private final int[] counts = new int[CARDS];
+  private final int[] used = new int[CARDS]; // the copies of each card placed so far by arrange
+  private final int[] values = new int[0x10]; // the arrangement arrange is building
+  private int[] unknown = new int[0];
+  private int[] strata = new int[0]; // the hands of each stratum
+  private double[] probability = new double[0];
+  private int[] order = new int[0];
+
+  /**
+   * Plans the worlds of a search from a player's beliefs
+   *
+   * @param view     the player's state
+   * @param beliefs  the beliefs of the player, told of the card they have drawn
+   * @param worlds   the number of worlds the search has room for, limited to
+   *                 MAX_WORLDS
+   * @param perWorld the iterations an even share of the search gives a world
+   * @param rand     the random number generator for the order of the worlds
+   **/
+  public void plan(State view, BeliefTracker beliefs, int worlds, int perWorld, RandomGenerator rand) {
+    worlds = Math.max(1, Math.min(MAX_WORLDS, worlds));
+    int[] held = begin(view, beliefs);
+
+    long distinct = arrangements(counts, worlds);
+    exact = distinct <= worlds;
+    if (exact) {
+      fixed = hidden;
+      grow((int) distinct);
+      arrange(0, held, beliefs.evidence(), true);
+      if (size == 0)// the evidence contradicts itself, so ignore it
+        arrange(0, held, null, true);
+      for (int i = 0; i < size; i++)
+        weight[i] = 1.0 / size;
+    } else {
+      stratify(held, beliefs.evidence(), worlds);
+    }
+    allot(worlds * (long) perWorld);
+    shuffle(rand);
+  }
+
+  /**
+   * Plans a world for each assignment of cards to every unknown hand consistent
+   * with the Evidence, weighted by its probability, the deck of each being
+   * shuffled when it is dealt. Where the order of the deck does not matter, the
+   * schedule covers every distinct world exactly.
+   *
+   * @param view    the player's state
+   * @param beliefs the beliefs of the player, told of the card they have drawn
+   **/
+  public void planHands(State view, BeliefTracker beliefs) {
+    int[] held = begin(view, beliefs);
+    exact = false;
+    stratify(held, beliefs.evidence(), 0);
+    allot(size);
+    for (int i = 0; i < size; i++)
+      order[i] = i;
+  }
+
+  // reads the hidden cards and the unknown hands from the beliefs, emptying the
+  // schedule, and gives the value of the card each player is known to hold, 0 if
+  // unknown
+  private int[] begin(State view, BeliefTracker beliefs) {
+    int num = view.numPlayers();
+    beliefs.hiddenCounts(counts);
+    hidden = 0;
+    for (int c = 0; c < CARDS; c++)
+      hidden += counts[c] = Math.max(0, counts[c]);
+    if (unknown.length < num)
+      unknown = new int[num];
+    int[] held = new int[num];// the value of each hand, 0 if unknown
+    hands = 0;
+    for (int p = 0; p < num; p++) {
+      Card c = view.eliminated(p) ? null : beliefs.known(p);
+      if (c != null)
+        held[p] = c.value();
+      else if (!view.eliminated(p))
+        unknown[hands++] = p;
+    }
+    hands = Math.min(hands, hidden);
+    size = 0;
+    return held;
+  }
+
+  /** @return the number of worlds in the schedule **/
+  public int size() {
+    return size;
+  }
+
+  /** @return true if the schedule holds every distinct world, each once **/
+  public boolean isExact() {
+    return exact;
+  }
+
+  /**
+   * Gives the iterations to search in a world
+   *
+   * @param world the index of the world
+   * @return the number of iterations, at least 1
+   **/
+  public int iterations(int world) {
+    return iterations[order[world]];
+  }
+
+  /**
+   * Gives the probability a world stands for, the weights of the schedule adding
+   * up to 1
+   *
+   * @param world the index of the world
+   * @return the weight of the world
+   **/
+  public double weight(int world) {
+    return weight[order[world]];
+  }
+
+  /**
+   * Deals a world of the schedule
+   *
+   * @param world   the index of the world
+   * @param view    the player's state, as when the schedule was planned
+   * @param drawn   the card the player has just drawn
+   * @param beliefs the beliefs the schedule was planned from
+   * @param into    the state to deal the world into
+   * @param rand    the random number generator used to shuffle the deck
+   **/
+  public void deal(int world, State view, Card drawn, BeliefTracker beliefs, PackedState into,
+      RandomGenerator rand) {
+    into.deal(view, drawn, beliefs, cards, order[world] * hidden, fixed, rand);
+  }
+
+  // counts the distinct arrangements of the given counts of cards, or gives
+  // limit + 1 if there are more than limit
+  private static long arrangements(int[] counts, long limit) {
+    long n = 1;
+    int placed = 0;
+    for (int c = 0; c < counts.length; c++) {
+      for (int j = 1; j <= counts[c]; j++) {
+        n = n * ++placed / j;// the binomial coefficients stay whole numbers
+        if (n > limit)
+          return limit + 1;
+      }
+    }
+    return n;
+  }
+
+  // adds every distinct arrangement of the hidden cards from position i on,
+  // whose unknown hands are consistent with the evidence, as a world; or if
+  // hands only, every assignment of the unknown hands as a stratum, with the
+  // number of ways to deal it
+  private void arrange(int i, int[] held, Evidence evidence, boolean whole) {
+    if (i == hands && evidence != null && !evidence.consistent(held))
+      return;
+    if (i == (whole ? hidden : hands)) {
+      if (whole) {
+        System.arraycopy(values, 0, cards, size * hidden, hidden);
+      } else {
+        System.arraycopy(values, 0, strata, size * hands, hands);
+        double ways = 1;
+        for (int c = 0; c < CARDS; c++)
+          for (int j = 0; j < used[c]; j++)
+            ways *= counts[c] + used[c] - j;
+        probability[size] = ways;
+      }
+      size++;
+      return;
+    }
+    for (int c = 0; c < CARDS; c++) {
+      if (counts[c] == 0)
+        continue;
+      counts[c]--;
+      used[c]++;
+      values[i] = c + 1;
+      if (i < hands)
+        held[unknown[i]] = c + 1;
+      arrange(i + 1, held, evidence, whole);
+      if (i < hands)
+        held[unknown[i]] = 0;
+      used[c]--;
+      counts[c]++;
+    }
+  }
+
+  // schedules the worlds of each stratum of the unknown hands, or if there are
+  // no more worlds than 0, one world for each assignment of every unknown hand
+  private void stratify(int[] held, Evidence evidence, int worlds) {
+    int max = 1;
+    for (int i = 0; i < hands; i++)
+      max *= CARDS;
+    if (strata.length < max * hands || probability.length < max) {
+      strata = new int[max * hands];
+      probability = new double[max];
+    }
+    arrange(0, held, evidence, false);
+    if (size == 0)// the evidence contradicts itself, so ignore it
+      arrange(0, held, null, false);
+
+    // stratify by as many of the hands as leave a world for each stratum, the
+    // assignments sharing those hands being next to each other
+    fixed = hands;
+    while (worlds > 0 && fixed > 0 && merge(size, fixed, false) > worlds)
+      fixed--;
+    int count = merge(size, fixed, true);
+    if (worlds <= 0)
+      worlds = count;
+    double total = 0;
+    for (int s = 0; s < count; s++)
+      total += probability[s];
+    for (int s = 0; s < count; s++)
+      probability[s] /= total;
+
+    // a world for each stratum, and the rest shared out in proportion to the
+    // probability beyond what that one world stands for
+    size = 0;
+    grow(worlds);
+    double extra = 0;
+    for (int s = 0; s < count; s++)
+      extra += Math.max(0, probability[s] * worlds - 1);
+    double sum = 0;
+    long given = 0;
+    for (int s = 0; s < count; s++) {
+      sum += Math.max(0, probability[s] * worlds - 1);
+      long upTo = extra == 0 ? 0 : Math.round(sum / extra * (worlds - count));
+      int n = 1 + (int) (upTo - given);
+      given = upTo;
+      for (int k = 0; k < n; k++)
+        addWorld(s, probability[s] / n);
+    }
+  }
+
+  // counts the strata left by keeping only the first k hands of each of the
+  // first count assignments, and if merge, merges the assignments of each
+  // stratum into its first, adding up their ways
+  private int merge(int count, int k, boolean merge) {
+    int n = 0;
+    for (int s = 0; s < count; s++) {
+      int last = merge ? n - 1 : s - 1; // an assignment of the stratum before
+      boolean same = last >= 0;
+      for (int i = 0; i < k && same; i++)
+        same = strata[s * hands + i] == strata[last * hands + i];
+      if (same) {
+        if (merge)
+          probability[n - 1] += probability[s];
+        continue;
+      }
+      if (merge) {
+        System.arraycopy(strata, s * hands, strata, n * hands, hands);
+        probability[n] = probability[s];
+      }
+      n++;
+    }
+    return n;
+  }
+
+  // adds a world of a stratum, its hands followed by the rest of the hidden
+  // cards
+  private void addWorld(int stratum, double w) {
+    int k = size * hidden;
+    for (int i = 0; i < fixed; i++) {
+      int v = strata[stratum * hands + i];
+      cards[k++] = v;
+      used[v - 1]++;
+    }
+    for (int c = 0; c < CARDS; c++)
+      for (int j = used[c]; j < counts[c]; j++)
+        cards[k++] = c + 1;
+    for (int i = 0; i < fixed; i++)
+      used[strata[stratum * hands + i] - 1]--;
+    weight[size++] = w;
+  }
+
+  // shares the iterations of the search out between the worlds by weight,
+  // rounding so they add up, giving each world at least one
+  private void allot(long total) {
+    double sum = 0;
+    long given = 0;
+    for (int i = 0; i < size; i++) {
+      sum += weight[i];
+      long upTo = Math.round(sum * total);
+      iterations[i] = (int) Math.max(1, Math.min(Integer.MAX_VALUE, upTo - given));
+      given = Math.max(given, upTo);
+    }
+  }
+
+  // puts the worlds in a random order, so a search cut short still searches a
+  // fair sample of them
+  private void shuffle(RandomGenerator rand) {
+    for (int i = 0; i < size; i++)
+      order[i] = i;
+    for (int i = size - 1; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+  }
+
+  // makes room for the given number of worlds
+  private void grow(int worlds) {
+    if (weight.length < worlds || cards.length < worlds * hidden) {
+      int n = Math.max(worlds, weight.length);
+      cards = new int[n * 0x10];
+      iterations = new int[n];
+      weight = new double[n];
+      order = new int[n];
+    }
+  }
+}
@@ -3,35 +3,71 @@ package loveletter;
 /**
  * An abstract class to represent actions in the game LoveLetter.
  * The class is designed to be immutable.
+ * There are only a few hundred distinct actions, so every one is created once, when the class is loaded,
+ * and the static play methods return the shared instance.
+ * Each action also has a stable int encoding, see code and fromCode.
  * @author Tim French
  **/
 public class Action{
   //the player performing the action
-  private Card card;
+  private final Card card;
   //the player's name (for nice formatting)
-  private int player;
+  private final int player;
   //The type of action
-  private int target;
+  private final int target;
   //The position of the card played/discarded
-  private Card guess;
+  private final Card guess;
+  //the int encoding of the action
+  private final int code;
+
+  private static final Card[] CARDS = Card.values();
+
+  //every valid action, indexed by its code
+  private static final Action[] TABLE = new Action[1<<11];
+
+  static{
+    for(int p = 0; p<4; p++)
+      for(Card c: CARDS)
+        for(int t = -1; t<4; t++){
+          boolean targetted = c!=Card.HANDMAID && c!=Card.COUNTESS && c!=Card.PRINCESS;
+          if(targetted!=(t!=-1) || (t==p && c!=Card.PRINCE)) continue;
+          if(c==Card.GUARD)
+            for(int g = 1; g<CARDS.length; g++) new Action(c, p, t, CARDS[g]);
+          else new Action(c, p, t, null);
+        }
+  }
 
   /**
-   * Private constructor for creating a new action.
-   * Called by the static play methods.
+   * Private constructor for creating a new action, which adds it to the table of actions.
+   * Only called when the class is loaded.
    * @param card the card being played
    * @param player the player performing the action
    * @param target the player targetted by this action, or the player in the event an action has no target
    * @param guess the card the player guesses in a guard action
-   * @throws IllegalActionException if an illegal action.
    * **/
-  private Action(Card card, int player, int target, Card guess) throws IllegalActionException{
-    if(player < 0 || player >3) throw new IllegalActionException("Player out of range");
-    if(card==null) throw new IllegalActionException("Null card specified in action");
-    if(target < -1 || target >3) throw new IllegalActionException("Player out of range");
+  private Action(Card card, int player, int target, Card guess){
     this.card = card;
     this.player = player;
     this.target = target;
     this.guess = guess;
+    this.code = encode(card, player, target, guess);
+    TABLE[code] = this;
+  }
+
+  /**
+   * Finds the shared instance of an action.
+   * Called by the static play methods.
+   * @param card the card being played
+   * @param player the player performing the action
+   * @param target the player targetted by this action, or -1 in the event an action has no target
+   * @param guess the card the player guesses in a guard action
+   * @throws IllegalActionException if an illegal action.
+   * **/
+  private static Action intern(Card card, int player, int target, Card guess) throws IllegalActionException{
+    if(player < 0 || player >3) throw new IllegalActionException("Player out of range");
+    if(card==null) throw new IllegalActionException("Null card specified in action");
+    if(target < -1 || target >3) throw new IllegalActionException("Player out of range");
+    return TABLE[encode(card, player, target, guess)];
   }
 
   /**the card of the action
@@ -54,6 +90,11 @@ public class Action{
    * **/
   public Card guess(){return guess;}
 
+  /**the int encoding of the action, which is stable between runs
+   * @return the code of the action, as produced by encode
+   * **/
+  public int code(){return code;}
+
   /**produces a string representation of the action
    * @return a string representation of the action
    * **/
@@ -76,6 +117,55 @@ public class Action{
     return toString(""+player,""+target);
   }
 
+  /**
+   * Encodes the parts of an action as an int, so actions can be stored and compared without objects.
+   * The guessed card is in bits 0-2 (0 for no guess, as a Guard can never be guessed),
+   * the target plus one in bits 3-5, the card in bits 6-8 and the player in bits 9-10.
+   * No checks are made that the action is legal.
+   * @param card the card being played
+   * @param player the player performing the action
+   * @param target the player targetted by this action, or -1
+   * @param guess the card guessed in a guard action, or null
+   * @return the int encoding of the action
+   * **/
+  public static int encode(Card card, int player, int target, Card guess){
+    return player<<9 | card.ordinal()<<6 | (target+1)<<3 | (guess==null?0:guess.ordinal());
+  }
+
+  /**the card of an encoded action
+   * @param code the encoded action
+   * @return the card for the action
+   **/
+  public static Card cardOf(int code){return CARDS[(code>>>6)&7];}
+
+  /**the player of an encoded action
+   * @param code the encoded action
+   * @return the player index who did the action
+   **/
+  public static int playerOf(int code){return (code>>>9)&3;}
+
+  /**the target of an encoded action
+   * @param code the encoded action
+   * @return the index of the targetted player, or -1 if there is no target
+   **/
+  public static int targetOf(int code){return ((code>>>3)&7)-1;}
+
+  /**the guess of an encoded action
+   * @param code the encoded action
+   * @return the guessed card, or null if there is no guess
+   **/
+  public static Card guessOf(int code){return (code&7)==0?null:CARDS[code&7];}
+
+  /**
+   * Gives the action with the given int encoding, without creating any objects.
+   * @param code the encoded action
+   * @return the action object, or null if the code does not describe a valid action
+   * **/
+  public static Action fromCode(int code){
+    if(code<0 || code>=TABLE.length) return null;
+    return TABLE[code];
+  }
+
 
   /**
    * Constructs a GUARD action from the player guessing the targets card.
@@ -90,7 +180,7 @@ public class Action{
     if(player == target) throw new IllegalActionException("Player cannot target themself");
     if(guess == null) throw new IllegalActionException("Player cannot guess a null card");
     if(guess == Card.GUARD) throw new IllegalActionException("Player cannot guess a guard");
-    return new Action(Card.GUARD, player, target, guess);
+    return intern(Card.GUARD, player, target, guess);
   }
 
   /**
@@ -103,7 +193,7 @@ public class Action{
   public static Action playPriest(int player, int target) throws IllegalActionException{
     if(target==-1) throw new IllegalActionException("Target must be specified");
     if(player == target) throw new IllegalActionException("Player cannot target themself");
-    return new Action(Card.PRIEST, player, target, null);
+    return intern(Card.PRIEST, player, target, null);
   }
 
   /**
@@ -116,7 +206,7 @@ public class Action{
   public static Action playBaron(int player, int target) throws IllegalActionException{
     if(target==-1) throw new IllegalActionException("Target must be specified");
     if(player == target) throw new IllegalActionException("Player cannot target themself");
-    return new Action(Card.BARON, player, target, null);
+    return intern(Card.BARON, player, target, null);
   }
   
   /**
@@ -125,7 +215,7 @@ public class Action{
    * @return the action object
    * **/
   public static Action playHandmaid(int player) throws IllegalActionException{
-    return new Action(Card.HANDMAID, player, -1,null);
+    return intern(Card.HANDMAID, player, -1,null);
   }
 
   /**
@@ -137,7 +227,7 @@ public class Action{
    * **/
   public static Action playPrince(int player, int target) throws IllegalActionException{
     if(target==-1) throw new IllegalActionException("Target must be specified");
-    return new Action(Card.PRINCE, player, target, null);
+    return intern(Card.PRINCE, player, target, null);
   }
 
   /**
@@ -153,7 +243,7 @@ public class Action{
       throw new IllegalActionException("Target must be specified");
     if(player==target)
       throw new IllegalActionException("A player cannot target themselves.");
-    return new Action(Card.KING, player, target, null);
+    return intern(Card.KING, player, target, null);
   }
 
   /**
@@ -163,7 +253,7 @@ public class Action{
    * @throws IllegalActionException if the player is out of range
    * **/
   public static Action playCountess(int player) throws IllegalActionException{
-    return new Action(Card.COUNTESS, player, -1, null);
+    return intern(Card.COUNTESS, player, -1, null);
   }
 
   /**
@@ -173,6 +263,6 @@ public class Action{
    * @throws IllegalActionException if the player is out of range
    * **/
   public static Action playPrincess(int player) throws IllegalActionException{
-    return new Action(Card.PRINCESS, player, -1, null);
+    return intern(Card.PRINCESS, player, -1, null);
   }
 }
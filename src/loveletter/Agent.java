@@ -1,5 +1,7 @@
 package loveletter;
 
+import java.util.random.RandomGenerator;
+
 /**
  * An interface for representing an agent in the game Love Letter
  * All agents must have a 0 parameter constructor
@@ -34,6 +36,14 @@ public interface Agent{
    * */
   public Action playCard(Card c);
 
+  /**
+   * Sets the random number generator the agent draws from, so games played from
+   * the same seed play out the same. Agents that make no random choices may
+   * ignore it.
+   * @param random the generator, used only by this agent
+   **/
+  public default void setRandom(RandomGenerator random){}
+
 }
 
 
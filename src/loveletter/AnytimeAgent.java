@@ -0,0 +1,26 @@
+package loveletter;
+
+/**
+ * An interface for agents that improve their choice of action the longer they think,
+ * and can be asked for the best action so far.
+ * When the game has a deadline for each move, an AnytimeAgent that runs out of time is asked to stop,
+ * and its best action so far is played, rather than a random one.
+ * The methods of this interface are called from another thread while playCard is running,
+ * so implementations must make them thread safe.
+ * */
+public interface AnytimeAgent extends Agent{
+
+  /**
+   * Gives the best action found so far for the card passed to the current call of playCard.
+   * @return the best action so far, or null if the agent has none yet
+   **/
+  public Action bestAction();
+
+  /**
+   * Asks the current call of playCard to return its best action as soon as possible.
+   * If the engine has asked for a move but playCard has not started yet, the call
+   * should return as soon as it starts.
+   **/
+  public void stop();
+
+}
@@ -1,6 +1,7 @@
 package loveletter;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 /**An enumeration of the card types
  * Cards are immutable
@@ -52,30 +53,52 @@ public enum Card {
      * @param rand a random number generator to shuffle the deck
      * @return an array of cards representing a standard deck of loveletter cards, in random order.
      * **/
-    public static Card[] deal(java.util.Random rand){
-      Card[] deck = new Card[16];
+    public static Card[] deal(RandomGenerator rand){
+      return deal(new Card[16], rand);
+    }
+
+    /**
+     * Deals a shuffled deck of cards into an array supplied by the caller, so no objects are created.
+     * Every order of the deck is equally likely.
+     * @param deck the array to deal into, of length at least 16
+     * @param rand a random number generator to shuffle the deck
+     * @return the deck array, holding a standard deck of loveletter cards in random order.
+     * **/
+    public static Card[] deal(Card[] deck, RandomGenerator rand){
       int j = 0;
-      for(Card c: Card.values())
+      for(Card c: CARDS)
         for(int i = 0; i<c.count(); i++)
           deck[j++] = c;
-      for(int i = 0; i<200; i++){//make two hundred random swaps of cards
-        int index1 = rand.nextInt(16);
-        int index2 = rand.nextInt(16);
-        Card c = deck[index1];
-        deck[index1]=deck[index2];
-        deck[index2]=c;
-      }
+      shuffle(deck, 16, rand);
       return deck;
     }
 
+    /**
+     * Shuffles the first n cards of an array in place with a Fisher-Yates shuffle, 
+     * so every order is equally likely.
+     * @param cards the cards to shuffle
+     * @param n the number of cards at the start of the array to shuffle
+     * @param rand a random number generator to shuffle the cards
+     * **/
+    public static void shuffle(Card[] cards, int n, RandomGenerator rand){
+      for(int i = n-1; i>0; i--){
+        int j = rand.nextInt(i+1);
+        Card c = cards[i];
+        cards[i] = cards[j];
+        cards[j] = c;
+      }
+    }
+
 
     /**
      * Creates a shuffled deck of cards, using a default random number generator
      * @return an array of cards representing a standard deck of loveletter cards, in random order.
      * **/
     public static Card[] deal(){
-      return deal(new java.util.Random());
+      return deal(new SplittableRandom());
     }
+
+    private static final Card[] CARDS = values();
   
 }
 
@@ -0,0 +1,189 @@
+package loveletter;
+
+import java.io.Closeable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue of game events, delivered to listeners by a dispatcher
+ * thread. Games publish event codes (see GameEvent) into a ring buffer of
+ * primitive longs, so publishing creates no objects, and listeners are called
+ * in batches from the dispatcher thread.
+ *
+ * The buffer takes no lock. A game claims a slot with a compare-and-set on the
+ * tail, writes its event, and marks the slot published with the number of the
+ * event; the dispatcher reads the published slots in order and frees them by
+ * advancing the head. So one stream may be shared by several engines playing
+ * on different threads, without their publishing ever waiting on each other.
+ *
+ * When the buffer is full a lossy stream drops the event and counts it, so a
+ * slow listener never stalls the game. A lossless stream makes the game wait
+ * for space instead, for listeners that need every event.
+ */
+public class EventStream implements Closeable {
+
+  private static final int BATCH = 256; // most events handed to the listeners at once
+  private static final long SPACE_WAIT = 10_000; // nanoseconds a lossless game waits before looking for space again
+
+  private final long[] games;
+  private final long[] events;
+  private final AtomicLongArray published; // the number of the event in each slot plus 1, once written
+  private final int mask;
+  private final boolean lossless;
+  private volatile long head; // the next event to dispatch, advanced by the dispatcher only
+  private final AtomicLong tail = new AtomicLong(); // the next slot to claim
+  private volatile boolean waiting; // whether the dispatcher may be parked waiting for events
+  private volatile boolean closed;
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong nextGame = new AtomicLong();
+  private final CopyOnWriteArrayList<GameListener> listeners = new CopyOnWriteArrayList<GameListener>();
+  private final Thread dispatcher;
+
+  private static final Log LOG = Log.get("events");
+
+  /**
+   * Constructs a stream and starts its dispatcher thread.
+   *
+   * @param capacity the number of events that may be waiting for the listeners,
+   *                 rounded up to a power of two
+   * @param lossless whether to make games wait for space rather than drop events
+   *                 when the buffer is full
+   **/
+  public EventStream(int capacity, boolean lossless) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+    games = new long[size];
+    events = new long[size];
+    published = new AtomicLongArray(size);
+    mask = size - 1;
+    this.lossless = lossless;
+    dispatcher = new Thread(this::dispatch, "event-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * Registers a listener for every event published after this call.
+   *
+   * @param listener the listener
+   **/
+  public void addListener(GameListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes a listener. It may still receive the events of a batch already
+   * being delivered.
+   *
+   * @param listener the listener
+   **/
+  public void removeListener(GameListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Reserves the number of a new game, for the events of the game.
+   *
+   * @return a number no other game on this stream has
+   **/
+  public long newGame() {
+    return nextGame.getAndIncrement();
+  }
+
+  /**
+   * Adds an event to the buffer. If the buffer is full, a lossy stream drops
+   * the event, and a lossless stream waits for space. An event published while
+   * the stream is being closed may be lost.
+   *
+   * @param game  the number of the game
+   * @param event the event code
+   * @return true if the event was queued, or false if it was dropped, or the
+   *         stream is closed
+   **/
+  public boolean publish(long game, long event) {
+    long t;
+    while (true) {
+      t = tail.get();
+      if (closed) {
+        dropped.incrementAndGet();
+        return false;
+      }
+      if (t - head < games.length) {
+        if (tail.compareAndSet(t, t + 1))
+          break;
+      } else if (!lossless || Thread.currentThread().isInterrupted()) {
+        dropped.incrementAndGet();
+        return false;
+      } else {
+        LockSupport.parkNanos(this, SPACE_WAIT);
+      }
+    }
+    int i = (int) (t & mask);
+    games[i] = game;
+    events[i] = event;
+    published.set(i, t + 1);
+    if (waiting)
+      LockSupport.unpark(dispatcher);
+    return true;
+  }
+
+  /** @return the number of events dropped because the buffer was full **/
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Delivers every queued event, stops the dispatcher thread and drops any
+   * event published afterwards.
+   **/
+  public void close() {
+    closed = true;
+    LockSupport.unpark(dispatcher);
+    try {
+      dispatcher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // takes the published events out in batches, and hands them to the listeners
+  private void dispatch() {
+    long[] g = new long[BATCH];
+    long[] e = new long[BATCH];
+    while (true) {
+      long h = head;
+      int n = 0;
+      while (n < BATCH && published.get((int) (h & mask)) == h + 1) {
+        int i = (int) (h++ & mask);
+        g[n] = games[i];
+        e[n++] = events[i];
+      }
+      if (n == 0) {
+        if (closed && h == tail.get())
+          return;// closed and empty
+        // park unless an event was published, or a slot claimed before closing,
+        // after the look above
+        waiting = true;
+        if (published.get((int) (h & mask)) != h + 1 && !closed)
+          LockSupport.park(this);
+        else
+          Thread.onSpinWait();
+        waiting = false;
+        if (Thread.interrupted())
+          return;
+        continue;
+      }
+      head = h;// frees the slots for the games
+      for (GameListener l : listeners) {
+        try {
+          for (int i = 0; i < n; i++)
+            l.onEvent(g[i], e[i]);
+        } catch (RuntimeException x) {
+          if (LOG.isEnabled(Log.Level.WARN))
+            LOG.log(Log.Level.WARN, "Listener " + l + " failed: " + x);
+        }
+      }
+    }
+  }
+}
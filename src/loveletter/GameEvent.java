@@ -0,0 +1,115 @@
+package loveletter;
+
+/**
+ * Static helpers for the event codes published by LoveLetter to an EventStream.
+ * An event code is a long describing one step of a game,
+ * so events can be queued and passed to listeners without creating objects or formatting text.
+ * The layout of the code is:
+ * bits 0-2 the type of the event,
+ * bits 3-4 the player concerned,
+ * bits 5-8 the value of the card drawn, or 0,
+ * bits 9-19 the code of the action played (see Action.code), or 0,
+ * bits 20-31 the outcome code of the action (see Outcome), or the scores at the end of a round or game, 3 bits per player,
+ * bits 32-39 the round of the game, counting from 0,
+ * and bits 40-42 the number of players.
+ **/
+public final class GameEvent{
+
+  /**a round has been dealt; the player is the first to play**/
+  public static final int ROUND_START = 0;
+  /**the player has drawn the card**/
+  public static final int DRAW = 1;
+  /**the player has played the action**/
+  public static final int ACTION = 2;
+  /**the player's action had the outcome**/
+  public static final int OUTCOME = 3;
+  /**the round is over; the player won it, and the scores are given**/
+  public static final int ROUND_END = 4;
+  /**the game is over; the player won it, and the final scores are given**/
+  public static final int GAME_END = 5;
+
+  private static final Card[] CARDS = Card.values();
+  private static final String[] NAMES = {"ROUND_START", "DRAW", "ACTION", "OUTCOME", "ROUND_END", "GAME_END"};
+
+  private GameEvent(){}
+
+  /**
+   * Encodes an event.
+   * @param type the type of event
+   * @param round the round of the game, from 0
+   * @param num the number of players
+   * @param player the player concerned
+   * @param card the card drawn, or null
+   * @param action the code of the action played, or 0
+   * @param data the outcome code, or the packed scores
+   * @return the event code
+   * **/
+  public static long encode(int type, int round, int num, int player, Card card, int action, int data){
+    return type | player<<3 | (card==null?0:card.value())<<5 | action<<9 | (long)data<<20
+      | (long)(round&0xFF)<<32 | (long)num<<40;
+  }
+
+  /**
+   * Packs the scores of the players, 3 bits each, for ROUND_END and GAME_END events.
+   * @param state the state of the game
+   * @return the packed scores
+   * **/
+  public static int scores(State state){
+    int packed = 0;
+    for(int p = 0; p<state.numPlayers(); p++) packed |= state.score(p)<<(3*p);
+    return packed;
+  }
+
+  /**@param event the event code @return the type of the event**/
+  public static int type(long event){return (int)event&7;}
+
+  /**@param event the event code @return the player concerned by the event**/
+  public static int player(long event){return (int)(event>>>3)&3;}
+
+  /**@param event the event code @return the card drawn, or null if the event is not a DRAW**/
+  public static Card card(long event){
+    int v = (int)(event>>>5)&0xF;
+    return v==0?null:CARDS[v-1];
+  }
+
+  /**@param event the event code @return the code of the action played, for ACTION and OUTCOME events**/
+  public static int action(long event){return (int)(event>>>9)&0x7FF;}
+
+  /**@param event the event code @return the outcome code, for OUTCOME events**/
+  public static int outcome(long event){return (int)(event>>>20)&0xFFF;}
+
+  /**
+   * The score of a player, for ROUND_END and GAME_END events
+   * @param event the event code
+   * @param player the player whose score is sought
+   * @return the player's score after the round
+   * **/
+  public static int score(long event, int player){return (int)(event>>>(20+3*player))&7;}
+
+  /**@param event the event code @return the round of the game, counting from 0**/
+  public static int round(long event){return (int)(event>>>32)&0xFF;}
+
+  /**@param event the event code @return the number of players in the game**/
+  public static int numPlayers(long event){return (int)(event>>>40)&7;}
+
+  /**
+   * produces a short description of an event, for debugging
+   * @param event the event code
+   * @return a string representation of the event
+   * **/
+  public static String toString(long event){
+    int type = type(event);
+    String str = NAMES[type]+" round "+round(event)+" player "+player(event);
+    switch(type){
+      case DRAW: return str+" drew the "+card(event);
+      case ACTION: return str+" "+Action.fromCode(action(event));
+      case OUTCOME: return str+" outcome "+outcome(event);
+      case ROUND_END:
+      case GAME_END:
+        str+=" won, scores";
+        for(int p = 0; p<numPlayers(event); p++) str+=" "+score(event, p);
+        return str;
+      default: return str+" of "+numPlayers(event)+" players";
+    }
+  }
+}
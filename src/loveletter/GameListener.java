@@ -0,0 +1,17 @@
+package loveletter;
+
+/**
+ * An interface for observers of games, registered with an EventStream.
+ * Listeners are called from the stream's dispatcher thread, never from the thread playing the game,
+ * so a slow listener delays other listeners but not the game.
+ * */
+public interface GameListener{
+
+  /**
+   * Method called for every event of every game published to the stream, in the order they were published.
+   * @param game the number of the game, unique within the stream
+   * @param event the event code (see GameEvent)
+   **/
+  public void onEvent(long game, long event);
+
+}
@@ -0,0 +1,294 @@
+package loveletter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal logging facility for the engine and the agents. Each component
+ * gets a named log with its own level, and every message goes to a single
+ * shared sink, which discards everything by default.
+ *
+ * Checking whether a level is enabled is a single field read, so callers should
+ * guard each message with isEnabled and build no strings at all when logging is
+ * off:
+ *
+ * <pre>
+ * if (LOG.isEnabled(Log.Level.DEBUG))
+ *   LOG.log(Log.Level.DEBUG, "Player " + p + " draws the " + c);
+ * </pre>
+ *
+ * The initial level of every log may be set with the system property
+ * loveletter.log (for example -Dloveletter.log=DEBUG), in which case messages
+ * are printed to System.err until another sink is set.
+ */
+public final class Log {
+
+  /** The levels of messages, from the most to the least detailed. **/
+  public enum Level {
+    TRACE, DEBUG, INFO, WARN, OFF
+  }
+
+  /**
+   * A destination for log messages. Sinks may be called from several threads at
+   * once.
+   */
+  public interface Sink {
+    /**
+     * Records a message.
+     *
+     * @param level   the level of the message
+     * @param log     the name of the log the message was written to
+     * @param message the message
+     **/
+    void write(Level level, String log, String message);
+  }
+
+  /** A sink that ignores every message. **/
+  public static final Sink DISCARD = (level, log, message) -> {};
+
+  private static final ConcurrentHashMap<String, Log> LOGS = new ConcurrentHashMap<String, Log>();
+  private static volatile Level initial = Level.OFF;
+  private static volatile Sink sink = DISCARD;
+
+  static {
+    String level = System.getProperty("loveletter.log");
+    if (level != null) {
+      initial = Level.valueOf(level.toUpperCase());
+      sink = new Print(System.err);
+    }
+  }
+
+  private final String name;
+  private volatile int threshold; // the ordinal of the least detailed level recorded
+
+  private Log(String name) {
+    this.name = name;
+    this.threshold = initial.ordinal();
+  }
+
+  /**
+   * Gives the log with the given name, creating it if needed. Logs should be
+   * kept in static final fields rather than looked up for each message.
+   *
+   * @param name the name of the log
+   * @return the log
+   **/
+  public static Log get(String name) {
+    return LOGS.computeIfAbsent(name, Log::new);
+  }
+
+  /**
+   * Sets the sink every log writes to.
+   *
+   * @param s the new sink, or null to discard every message
+   **/
+  public static void setSink(Sink s) {
+    sink = s == null ? DISCARD : s;
+  }
+
+  /**
+   * Sets the level of every log, including logs created later.
+   *
+   * @param level the least detailed level to record, or OFF
+   **/
+  public static void setLevelAll(Level level) {
+    initial = level;
+    for (Log log : LOGS.values())
+      log.setLevel(level);
+  }
+
+  /**
+   * Sets the level of this log.
+   *
+   * @param level the least detailed level to record, or OFF
+   **/
+  public void setLevel(Level level) {
+    threshold = level.ordinal();
+  }
+
+  /**
+   * Tests whether messages of a level are recorded.
+   *
+   * @param level the level of a message
+   * @return true if and only if a message of the level would be written to the
+   *         sink
+   **/
+  public boolean isEnabled(Level level) {
+    return level.ordinal() >= threshold && level != Level.OFF;
+  }
+
+  /**
+   * Writes a message to the sink, if its level is enabled.
+   *
+   * @param level   the level of the message
+   * @param message the message
+   **/
+  public void log(Level level, String message) {
+    if (isEnabled(level))
+      sink.write(level, name, message);
+  }
+
+  /** @return the name of the log **/
+  public String name() {
+    return name;
+  }
+
+  /**
+   * A sink that prints each message on its own line to a PrintStream.
+   */
+  public static class Print implements Sink {
+    private final PrintStream out;
+
+    /**
+     * @param out the stream to print to
+     **/
+    public Print(PrintStream out) {
+      this.out = out;
+    }
+
+    public void write(Level level, String log, String message) {
+      out.println(level + " " + log + ": " + message);
+    }
+  }
+
+  /**
+   * A sink that keeps the most recent messages in memory, overwriting the oldest
+   * once full. Useful for dumping the moves leading up to an error.
+   */
+  public static class RingBuffer implements Sink {
+    private final String[] lines;
+    private long count; // messages written so far
+
+    /**
+     * @param capacity the number of messages kept
+     **/
+    public RingBuffer(int capacity) {
+      lines = new String[Math.max(1, capacity)];
+    }
+
+    public synchronized void write(Level level, String log, String message) {
+      lines[(int) (count++ % lines.length)] = level + " " + log + ": " + message;
+    }
+
+    /**
+     * Gives the messages held, oldest first.
+     *
+     * @return a new array of the messages held
+     **/
+    public synchronized String[] snapshot() {
+      int n = (int) Math.min(count, lines.length);
+      String[] copy = new String[n];
+      for (int i = 0; i < n; i++)
+        copy[i] = lines[(int) ((count - n + i) % lines.length)];
+      return copy;
+    }
+
+    /** Empties the buffer. **/
+    public synchronized void clear() {
+      java.util.Arrays.fill(lines, null);
+      count = 0;
+    }
+  }
+
+  /**
+   * A sink that appends messages to a file from a background thread, writing
+   * them in batches. Writers never wait for the disk: if the queue of pending
+   * messages is full the message is dropped and counted instead. The number of
+   * dropped messages is written at the end of the file when the sink is closed.
+   */
+  public static class AsyncFile implements Sink, Closeable {
+    private static final String STOP = new String("STOP"); // compared by reference
+
+    private final BlockingQueue<String> queue;
+    private final BufferedWriter out;
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile IOException failure;
+
+    /**
+     * Opens the file, replacing any existing file, and starts the writer thread.
+     *
+     * @param file     the file to write to
+     * @param capacity the number of messages that may be waiting to be written
+     * @throws IOException if the file cannot be opened
+     **/
+    public AsyncFile(Path file, int capacity) throws IOException {
+      queue = new ArrayBlockingQueue<String>(Math.max(1, capacity));
+      out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+      writer = new Thread(this::drain, "log-writer");
+      writer.setDaemon(true);
+      writer.start();
+    }
+
+    public void write(Level level, String log, String message) {
+      if (!queue.offer(level + " " + log + ": " + message))
+        dropped.incrementAndGet();
+    }
+
+    /** @return the number of messages dropped because the queue was full **/
+    public long dropped() {
+      return dropped.get();
+    }
+
+    // writes everything queued in one go, then waits for more
+    private void drain() {
+      List<String> batch = new ArrayList<String>();
+      try {
+        while (true) {
+          batch.add(queue.take());
+          queue.drainTo(batch);
+          for (String line : batch) {
+            if (line == STOP) {
+              out.flush();
+              return;
+            }
+            out.write(line);
+            out.newLine();
+          }
+          out.flush();
+          batch.clear();
+        }
+      } catch (IOException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        // closing anyway
+      }
+    }
+
+    /**
+     * Writes every queued message and closes the file. Messages written after
+     * the sink is closed are dropped.
+     *
+     * @throws IOException if the file could not be written
+     **/
+    public void close() throws IOException {
+      try {
+        queue.put(STOP);
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      try {
+        if (failure == null && dropped.get() > 0) {
+          out.write("dropped " + dropped.get() + " messages");
+          out.newLine();
+        }
+      } finally {
+        out.close();
+      }
+      if (failure != null)
+        throw failure;
+    }
+  }
+}
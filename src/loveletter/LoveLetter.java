@@ -1,7 +1,14 @@
 package loveletter;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 import java.io.PrintStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import agents.KnowledgeAgent;
 import agents.MCTSAgent;
@@ -14,22 +21,30 @@ import agents.RandomAgent;
  * 
  * @author Tim French
  */
-public class LoveLetter {
+public class LoveLetter implements AutoCloseable {
 
   private Agent rando;
-  private Random random;
+  private RandomGenerator random;
   private PrintStream ps;
+  private EventStream events;
+  private long moveTime; // the time allowed for each move in milliseconds, or 0 for no limit
+  private ExecutorService watchdog; // runs the agents' moves when there is a time limit
+
+  private static final Log LOG = Log.get("engine");
+  // the time an AnytimeAgent that ran out of time is given to return its move once stopped
+  private static final long STOP_GRACE_MILLIS = 5;
 
   /**
    * Constructs a LoveLetter game.
    * 
    * @param seed a seed for the random number generator.
-   * @param ps   a PrintStream object to record the events of the game
+   * @param ps   a PrintStream object to record the events of the game, or null
+   *             to play without any output
    **/
   public LoveLetter(long seed, PrintStream ps) {
-    this.random = new Random(seed);
+    this.random = new SplittableRandom(seed);
     this.ps = ps;
-    rando = new RandomAgent();
+    rando = new RandomAgent(random);
   }
 
   /**
@@ -41,6 +56,126 @@ public class LoveLetter {
     this.ps = System.out;
   }
 
+  /**
+   * Reseeds the random number generator used for the deals, so one engine can
+   * play a reproducible sequence of games.
+   * 
+   * @param seed the new seed
+   **/
+  public void setSeed(long seed) {
+    setRandom(new SplittableRandom(seed));
+  }
+
+  /**
+   * Sets the random number generator used for the deals, and for the moves
+   * played in place of an agent's illegal or late ones. The generator is not
+   * shared with other engines, so it need not be thread safe.
+   * 
+   * @param random the random number generator for the deals
+   **/
+  public void setRandom(RandomGenerator random) {
+    this.random = random;
+    rando.setRandom(random);
+  }
+
+  /**
+   * Sets the stream the events of each game are published to. Publishing only
+   * queues an event code, so listeners do not slow down the game.
+   * 
+   * @param events the stream of events, or null to publish no events
+   **/
+  public void setEvents(EventStream events) {
+    this.events = events;
+  }
+
+  /**
+   * Sets the time each agent is allowed to choose a move. Agents then choose
+   * their moves on a separate thread, watched by the engine. An agent that runs
+   * out of time is asked for its best move so far if it is an AnytimeAgent, and
+   * otherwise a random move is substituted. An AnytimeAgent is asked to stop
+   * when the time runs out, and its best move is taken at most 5 milliseconds
+   * later, so no move takes longer than the given time and those 5
+   * milliseconds.
+   * 
+   * An agent that ignores the deadline is left running in the background, and
+   * still sees the rest of the game, so should check Thread.interrupted.
+   * 
+   * @param millis the time allowed for each move in milliseconds, or 0 for no
+   *               limit (the default)
+   **/
+  public void setMoveTime(long millis) {
+    moveTime = Math.max(0, millis);
+  }
+
+  /**
+   * Asks an agent for its move, enforcing the time limit if there is one.
+   * 
+   * @param agent the agent to move
+   * @param card  the card the agent has drawn
+   * @return the agent's action, which may be illegal, or null if the agent has
+   *         no action
+   **/
+  private Action chooseAction(Agent agent, Card card) {
+    if (moveTime == 0)
+      return agent.playCard(card);
+    if (watchdog == null)
+      watchdog = newWatchdog();
+    Future<Action> move = watchdog.submit(() -> agent.playCard(card));
+    try {
+      return move.get(moveTime, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      Action act = null;
+      if (agent instanceof AnytimeAgent) {// give it a moment to return the move it stops on
+        AnytimeAgent anytime = (AnytimeAgent) agent;
+        anytime.stop();
+        try {
+          act = move.get(STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException | InterruptedException x) {
+          act = anytime.bestAction();
+        }
+      }
+      if (!move.isDone()) {// abandon the agent's thread, and interrupt it
+        watchdog.shutdownNow();
+        watchdog = newWatchdog();
+      }
+      if (LOG.isEnabled(Log.Level.WARN))
+        LOG.log(Log.Level.WARN, "Agent " + agent + " ran out of time, playing " + act);
+      if (ps != null)
+        ps.println("TIMEOUT BY PLAYER " + agent + (act != null ? "\nBest Move So Far Played" : ""));
+      return act;
+    } catch (ExecutionException e) {// the agent failed, so rethrow as if it were called directly
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      move.cancel(true);
+      return null;
+    }
+  }
+
+  /**
+   * Shuts down the thread that runs the agents' moves when there is a time
+   * limit, abandoning any move still running. The engine may still play games
+   * afterwards, starting a new thread if it needs one.
+   **/
+  public void close() {
+    if (watchdog != null) {
+      watchdog.shutdownNow();
+      watchdog = null;
+    }
+  }
+
+  private static ExecutorService newWatchdog() {
+    return Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "agent-move");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
   /**
    * Plays a game of LoveLetter
    * 
@@ -53,41 +188,77 @@ public class LoveLetter {
     int numPlayers = agents.length;
     State gameState = new State(random, agents);// the game state
     State[] playerStates = new State[numPlayers];
+    EventStream events = this.events;
+    long game = events != null ? events.newGame() : 0;
+    int round = 0;
     try {
       while (!gameState.gameOver()) {
         for (int i = 0; i < numPlayers; i++) {
           playerStates[i] = gameState.playerState(i);
           agents[i].newRound(playerStates[i]);
         }
+        if (events != null)
+          events.publish(game, GameEvent.encode(GameEvent.ROUND_START, round, numPlayers, gameState.nextPlayer(), null, 0, 0));
         while (!gameState.roundOver()) {
-          System.out.println("Cards are:\nplayer 0:" + gameState.getCard(0) + "\nplayer 1:" + gameState.getCard(1)
-              + "\nplayer 2:" + gameState.getCard(2) + "\nplayer 3:" + gameState.getCard(3));
+          if (LOG.isEnabled(Log.Level.DEBUG)) {
+            StringBuilder cards = new StringBuilder("Cards are:");
+            for (int p = 0; p < numPlayers; p++)
+              cards.append("\nplayer ").append(p).append(':').append(gameState.getCard(p));
+            LOG.log(Log.Level.DEBUG, cards.toString());
+          }
           Card topCard = gameState.drawCard();
-          System.out.println("Player " + gameState.nextPlayer() + " draws the " + topCard);
-          Action act = agents[gameState.nextPlayer()].playCard(topCard);
+          int actor = gameState.nextPlayer();
+          if (ps != null)
+            ps.println("Player " + actor + " draws the " + topCard);
+          if (events != null)
+            events.publish(game, GameEvent.encode(GameEvent.DRAW, round, numPlayers, actor, topCard, 0, 0));
+          Action act = chooseAction(agents[actor], topCard);
+          int outcome;
           try {
-            ps.println(gameState.update(act, topCard));
+            if (act == null)
+              throw new IllegalActionException("No action chosen");
+            outcome = gameState.execute(act, topCard);
           } catch (IllegalActionException e) {
-            ps.println("ILLEGAL ACTION PERFORMED BY PLAYER " + agents[gameState.nextPlayer()] + "("
-                + gameState.nextPlayer() + ")\nRandom Move Substituted");
+            if (ps != null)
+              ps.println((act != null ? "ILLEGAL ACTION PERFORMED BY PLAYER " : "NO ACTION BY PLAYER ")
+                  + agents[gameState.nextPlayer()] + "(" + gameState.nextPlayer() + ")\nRandom Move Substituted");
             rando.newRound(gameState.playerState(gameState.nextPlayer()));
             act = rando.playCard(topCard);
-            ps.println(gameState.update(act, topCard));
+            outcome = gameState.execute(act, topCard);
+          }
+          if (ps != null)
+            ps.println(gameState.describe(act, outcome));
+          if (events != null) {
+            events.publish(game, GameEvent.encode(GameEvent.ACTION, round, numPlayers, actor, null, act.code(), 0));
+            events.publish(game, GameEvent.encode(GameEvent.OUTCOME, round, numPlayers, actor, null, act.code(), outcome));
           }
           for (int p = 0; p < numPlayers; p++)
             agents[p].see(act, playerStates[p]);
         }
-        System.out.println("New Round, scores are:\nplayer 0:" + gameState.score(0) + "\nplayer 1:" + gameState.score(1)
-            + "\nplayer 2:" + gameState.score(2) + "\nplayer 3:" + gameState.score(3));
+        if (events != null)
+          events.publish(game, GameEvent.encode(GameEvent.ROUND_END, round, numPlayers, gameState.roundWinner(), null, 0,
+              GameEvent.scores(gameState)));
+        round++;
+        if (ps != null) {
+          String scores = "New Round, scores are:";
+          for (int p = 0; p < numPlayers; p++)
+            scores += "\nplayer " + p + ":" + gameState.score(p);
+          ps.println(scores);
+        }
         gameState.newRound();
       }
-      ps.println("Player " + gameState.gameWinner() + " wins the Princess's heart!");
+      if (ps != null)
+        ps.println("Player " + gameState.gameWinner() + " wins the Princess's heart!");
+      if (events != null)
+        events.publish(game, GameEvent.encode(GameEvent.GAME_END, round - 1, numPlayers, gameState.gameWinner(), null, 0,
+            GameEvent.scores(gameState)));
       int[] scoreboard = new int[numPlayers];
       for (int p = 0; p < numPlayers; p++)
         scoreboard[p] = gameState.score(p);
       return scoreboard;
     } catch (IllegalActionException e) {
-      ps.println("Something has gone wrong.");
+      if (ps != null)
+        ps.println("Something has gone wrong.");
       e.printStackTrace();
       return null;
     }
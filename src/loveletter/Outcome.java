@@ -0,0 +1,103 @@
+package loveletter;
+
+/**
+ * Static helpers for the outcome codes returned by State.execute.
+ * An outcome code is a small int describing what an action did,
+ * so the game can be played without building a description of every action.
+ * The description can be produced later from the code with State.describe.
+ * The layout of the code is:
+ * bits 0-2 the eliminated player plus one, or 0 if no player was eliminated,
+ * bits 3-6 the value of the card a player was forced to discard, or 0,
+ * bit 7 set if the action had no effect because every other player was protected by the Handmaid,
+ * bit 8 set if a card was revealed to another player (by a Priest, or a Baron tie),
+ * bit 9 set if the round ended,
+ * and bits 10-11 the winner of the round.
+ **/
+public final class Outcome{
+
+  /**the outcome of an action with no effects worth reporting**/
+  public static final int NONE = 0;
+  /**flag set if every other player was protected by the Handmaid**/
+  public static final int PROTECTED = 1<<7;
+  /**flag set if a card was revealed to another player**/
+  public static final int REVEALED = 1<<8;
+  /**flag set if the action ended the round**/
+  public static final int ROUND_OVER = 1<<9;
+
+  private static final Card[] CARDS = Card.values();
+
+  private Outcome(){}
+
+  /**
+   * Encodes a player being eliminated.
+   * @param player the eliminated player
+   * @param card the card the player was holding
+   * @return the outcome code for the elimination
+   * **/
+  public static int eliminated(int player, Card card){
+    return (player+1) | discarded(card);
+  }
+
+  /**
+   * Encodes a player being forced to discard a card by the Prince.
+   * @param card the card discarded
+   * @return the outcome code for the discard
+   * **/
+  public static int discarded(Card card){
+    return card.value()<<3;
+  }
+
+  /**
+   * Encodes the end of the round.
+   * @param winner the winner of the round
+   * @return the outcome code for the end of the round
+   * **/
+  public static int roundOver(int winner){
+    return ROUND_OVER | winner<<10;
+  }
+
+  /**
+   * The player eliminated by an action
+   * @param outcome the outcome code
+   * @return the eliminated player, or -1 if no player was eliminated
+   * **/
+  public static int eliminatedPlayer(int outcome){return (outcome&7)-1;}
+
+  /**
+   * The card a player was forced to discard by an action, either because they were eliminated or by the Prince.
+   * @param outcome the outcome code
+   * @return the discarded card, or null if no card was discarded
+   * **/
+  public static Card discardedCard(int outcome){
+    int v = (outcome>>>3)&0xF;
+    return v==0?null:CARDS[v-1];
+  }
+
+  /**
+   * Whether the action had no effect because every other player was protected by the Handmaid
+   * @param outcome the outcome code
+   * @return true if and only if the action was blocked by the Handmaid
+   * **/
+  public static boolean isProtected(int outcome){return (outcome&PROTECTED)!=0;}
+
+  /**
+   * Whether the action revealed a card to another player
+   * @param outcome the outcome code
+   * @return true if and only if a card was revealed
+   * **/
+  public static boolean isRevealed(int outcome){return (outcome&REVEALED)!=0;}
+
+  /**
+   * Whether the action ended the round
+   * @param outcome the outcome code
+   * @return true if and only if the round ended
+   * **/
+  public static boolean isRoundOver(int outcome){return (outcome&ROUND_OVER)!=0;}
+
+  /**
+   * The winner of the round, if the action ended the round
+   * @param outcome the outcome code
+   * @return the winner of the round, or -1 if the round did not end
+   * **/
+  public static int roundWinner(int outcome){return isRoundOver(outcome)?(outcome>>>10)&3:-1;}
+}
@@ -16,9 +16,12 @@ public class State implements Cloneable {
   private Card[] deck; //the deck of remaining cards
   private int[] top; //the index of the top of the deck
   private boolean[][] known; //whether player knows another players card
-  private boolean[] handmaid;
+  private int[] handmaid; //bit mask of the players protected by the handmaid (using Object reference so value is shared)
+  private int[] alive; //bit mask of the players not eliminated (using Object reference so value is shared)
+  private int[] discardValue; //the sum of the values of each player's discards
+  private int[] unseen; //how many of each card, by ordinal, are in a player's hand or the deck
   private int[] scores; //the current score of each player
-  private java.util.Random random;
+  private java.util.random.RandomGenerator random;
   private int[] nextPlayer; //the index of the next player to draw a card (using Object reference so value is shared).
   private Agent[] agents;
 
@@ -29,7 +32,7 @@ public class State implements Cloneable {
    * @param agents the array of players who start the game (must be of size 2,3 or 4)
    * @throws IllegalArgumentException if the array is of the wrong size.
    * */
-  public State(java.util.Random random, Agent[] agents){
+  public State(java.util.random.RandomGenerator random, Agent[] agents){
     num = agents.length;
     if(num<2 || num>4)
       throw new IllegalArgumentException("incorrect number of agents");
@@ -50,17 +53,39 @@ public class State implements Cloneable {
    * **/
   public void newRound() throws IllegalActionException{
     if(this.player!=-1) throw new IllegalActionException("Operation not permitted in player's state.");
-    deck = Card.deal(random);
+    deck = Card.deal(new Card[16], random);
     discards = new Card[num][16];
     discardCount = new int[num];
     hand = new Card[num];
-    handmaid = new boolean[num];
+    handmaid = new int[1];
+    alive = new int[1];
+    discardValue = new int[num];
+    unseen = new int[CARDS.length];
     top = new int[1];
     known = new boolean[num][num];
     for(int i = 0; i<num; i++){
       hand[i] = this.deck[top[0]++];
       known[i][i] = true;
     }
+    recount();
+  }
+
+  /**
+   * Recomputes the alive mask, discard values and unseen counts from the hands, deck and discard piles.
+   * These are otherwise maintained as the round is played.
+   * **/
+  private void recount(){
+    alive[0] = 0;
+    java.util.Arrays.fill(unseen, 0);
+    for(int p = 0; p<num; p++){
+      if(hand[p]!=null){
+        alive[0] |= 1<<p;
+        unseen[hand[p].ordinal()]++;
+      }
+      discardValue[p] = 0;
+      for(int j = 0; j<discardCount[p]; j++) discardValue[p]+=discards[p][j].value();
+    }
+    for(int i = top[0]; i<deck.length; i++) unseen[deck[i].ordinal()]++;
   }
 
 
@@ -142,6 +167,53 @@ public class State implements Cloneable {
   }
 
 
+  /**
+   * Enumerates every legal action for the player to move, who has just drawn a card,
+   * into a buffer supplied by the caller, as int encoded actions (see Action.encode).
+   * Actions are listed in order of the card played, so a Princess action is always last.
+   * No objects are created and no exceptions are thrown, so this may be called in a tight loop.
+   * @param actions the buffer to fill, which must have room for MAX_ACTIONS actions
+   * @param drawn the card drawn by the playing agent.
+   * @return the number of legal actions written to the buffer
+   * **/
+  public int legalActions(int[] actions, Card drawn){
+    int a = nextPlayer[0];
+    Card held = hand[a];
+    if(held==null || drawn==null) return 0;
+    Card first = held.value()<=drawn.value()?held:drawn;
+    Card second = first==held?drawn:held;
+    int n = legalActions(actions, 0, a, first, held, drawn);
+    if(second!=first) n = legalActions(actions, n, a, second, held, drawn);
+    return n;
+  }
+
+  /**the most actions legalActions can produce, being a Guard against three players with seven guesses, and a Prince**/
+  public static final int MAX_ACTIONS = 25;
+
+  private static final Card[] CARDS = Card.values();
+
+  private int legalActions(int[] actions, int n, int a, Card c, Card held, Card drawn){
+    if((held==Card.COUNTESS || drawn==Card.COUNTESS) && (c==Card.KING || c==Card.PRINCE))
+      return n;//the countess must be played
+    if(c==Card.HANDMAID || c==Card.COUNTESS || c==Card.PRINCESS){
+      actions[n++] = Action.encode(c, a, -1, null);
+      return n;
+    }
+    boolean all = allHandmaid(a);
+    for(int t = 0; t<num; t++){
+      if(eliminated(t)) continue;
+      if(t==a){
+        if(c==Card.PRINCE) actions[n++] = Action.encode(c, a, t, null);
+        continue;
+      }
+      if(handmaid(t) && (!all || c==Card.PRINCE)) continue;
+      if(c==Card.GUARD)
+        for(int g = 1; g<CARDS.length; g++) actions[n++] = Action.encode(c, a, t, CARDS[g]);
+      else actions[n++] = Action.encode(c, a, t, null);
+    }
+    return n;
+  }
+
   /**
    * Draws a card for a player from the shuffled deck. May only be performed in the game state.
    * The card is no longer available on the top of the deck. 
@@ -150,7 +222,9 @@ public class State implements Cloneable {
    * **/
   public Card drawCard() throws IllegalActionException{
     if(player!=-1) throw new IllegalActionException("operation not permitted in player's state.");
-    return deck[top[0]++];
+    Card c = deck[top[0]++];
+    unseen[c.ordinal()]--;//the drawn card is not in a hand until it is played or kept
+    return c;
   }
 
 
@@ -160,9 +234,23 @@ public class State implements Cloneable {
    * @param act the action to be performed
    * @param card the card drawn by the actor
    * @return a plain English description of the action
-   * @throws IllegalActionAxception if the state is a player state, or if the action is against the rules. 
+   * @throws IllegalActionException if the state is a player state, or if the action is against the rules. 
    ***/
   public String update(Action act, Card card) throws IllegalActionException{
+    return describe(act, execute(act, card));
+  }
+
+  /**
+   * Executes the given action of a player, without describing it.
+   * The returned outcome code records who was eliminated, whether a card was revealed and whether the round ended,
+   * and can be turned into a description later with describe (see the Outcome class).
+   * May only be called for non-player states (i.e. the omniscient game engine state)
+   * @param act the action to be performed
+   * @param card the card drawn by the actor
+   * @return the outcome code of the action
+   * @throws IllegalActionException if the state is a player state, or if the action is against the rules. 
+   ***/
+  public int execute(Action act, Card card) throws IllegalActionException{
     if(player!= -1)//Actions may only be executed from game states 
       throw new IllegalActionException("Method cannot be called from a player state");
     int a = act.player();//actor
@@ -175,37 +263,40 @@ public class State implements Cloneable {
       discardCount[a]--;
       throw e;//reset discard top
     }
+    discardValue[a]+=c.value();
     if(c==hand[a]){//if the player played the card in their hand, insert the new card into their hand.
       hand[a]=card;
+      unseen[c.ordinal()]--;
+      unseen[card.ordinal()]++;
       for(int p = 0; p<num; p++)
         if(p!=a) known[p][a]=false;//rescind players knowledge if a known card was played
     }
-    handmaid[a]=false;
-    String ret = act.toString(name(a), t!=-1?name(t):"");
+    handmaid[0]&=~(1<<a);
+    int ret = Outcome.NONE;
     switch(c){
       case GUARD://actor plays the guard
-        ret+=guardAction(a,t,act.guess());
+        ret=guardAction(a,t,act.guess());
         break;
       case PRIEST:
-        ret+=priestAction(a,t);
+        ret=priestAction(a,t);
         break;
       case BARON:
-        ret+=baronAction(a,t);
+        ret=baronAction(a,t);
         break;
       case HANDMAID:
-        handmaid[a]=true;
+        handmaid[0]|=1<<a;
         break;
       case PRINCE:
-        ret+= princeAction(t);  
+        ret=princeAction(t);  
         break;
       case KING:
-        ret+= kingAction(a,t);
+        ret=kingAction(a,t);
         break;
       case COUNTESS:  
         //no update required
         break;
       case PRINCESS:
-        ret+= princessAction(a);
+        ret=princessAction(a);
         break;
       default: 
         throw new IllegalActionException("Illegal Action? Something's gone very wrong");
@@ -215,7 +306,7 @@ public class State implements Cloneable {
        for(int p = 0; p<num; p++) 
          known[i][p]=true;
       int winner = roundWinner();
-      ret+="\nPlayer "+winner+" wins the round.";
+      ret|=Outcome.roundOver(winner);
       scores[winner]++;
       nextPlayer[0] = winner;
     }
@@ -226,61 +317,146 @@ public class State implements Cloneable {
     return ret;
   }
 
-  private String guardAction(int a, int t, Card guess){
+  /**
+   * Produces a plain English description of an action from its outcome code.
+   * @param act the action that was performed
+   * @param outcome the outcome code returned by execute for the action
+   * @return a plain English description of the action
+   * **/
+  public String describe(Action act, int outcome){
+    int a = act.player();//actor
+    int t = act.target();//target
+    String ret = act.toString(name(a), t!=-1?name(t):"");
+    int elim = Outcome.eliminatedPlayer(outcome);
+    Card discard = Outcome.discardedCard(outcome);
+    if(Outcome.isProtected(outcome))
+      ret+="\nPlayer "+name(t)+" is protected by the Handmaid.";//no effect action
+    else switch(act.card()){
+      case GUARD:
+        if(elim!=-1) ret+="\nPlayer "+name(t)+" had the "+act.guess()+" and is eliminated from the round";
+        else ret+="\nPlayer "+name(t)+" does not have the "+act.guess();
+        break;
+      case PRIEST:
+        ret+="\nPlayer "+name(a)+" sees player "+name(t)+"'s card.";
+        break;
+      case BARON:
+        if(elim!=-1) ret+="\nPlayer "+name(elim)+" holds the lesser card: "+discard+", and is eliminated";
+        else ret+="\n Both players hold the same card, and neither is eliminated.";
+        break;
+      case PRINCE:
+        if(elim!=-1) ret+="\nPlayer "+name(t)+" discarded the Princess and is eliminated.";
+        else ret+="\nPlayer "+name(t)+" discards the "+discard+".";
+        break;
+      case KING:
+        ret+="\nPlayer "+name(a)+" and player "+name(t)+" swap cards.";
+        break;
+      case PRINCESS:
+        ret+="\nPlayer "+name(a)+" played the Princess and is eliminated.";
+        ret+="\n Player "+name(a)+" was also holding the "+discard+".";
+        break;
+      default://handmaid and countess have nothing to report
+    }
+    if(Outcome.isRoundOver(outcome))
+      ret+="\nPlayer "+Outcome.roundWinner(outcome)+" wins the round.";
+    return ret;
+  }
+
+  /**
+   * Executes the given action of a player, returning a record from which the exact prior state can be restored with undo.
+   * Moves must be undone in the reverse order they were applied.
+   * The record packs everything an action may change into a long:
+   * the hands (bits 0-15), the known matrix (16-31), the handmaid flags (32-35), the top of the deck (36-40),
+   * the next player (41-42), the discard counts (43-58) and whether the action ended the round (59).
+   * May only be called for non-player states (i.e. the omniscient game engine state)
+   * @param act the action to be performed
+   * @param card the card drawn by the actor
+   * @return the undo record for the action
+   * @throws IllegalActionException if the state is a player state, or if the action is against the rules.
+   ***/
+  public long apply(Action act, Card card) throws IllegalActionException{
+    long record = 0;
+    for(int p = 0; p<num; p++){
+      if(hand[p]!=null) record |= (long)hand[p].value()<<(4*p);
+      for(int q = 0; q<num; q++)
+        if(known[p][q]) record |= 1L<<(16+4*p+q);
+      record |= (long)discardCount[p]<<(43+4*p);
+    }
+    record |= (long)handmaid[0]<<32;
+    record |= (long)top[0]<<36;
+    record |= (long)nextPlayer[0]<<41;
+    if(Outcome.isRoundOver(execute(act, card))) record |= 1L<<59;
+    return record;
+  }
+
+  /**
+   * Restores the state to how it was before the action that produced the record was applied.
+   * The alive mask, discard values and unseen counts are recomputed, which takes time proportional to the deck.
+   * @param record the undo record returned by apply
+   * @throws IllegalActionException if the state is a player state.
+   * **/
+  public void undo(long record) throws IllegalActionException{
+    if(player!= -1)//Actions may only be undone from game states
+      throw new IllegalActionException("Method cannot be called from a player state");
+    if((record&(1L<<59))!=0) scores[nextPlayer[0]]--;//the round winner is always the next player
+    Card[] cards = Card.values();
+    for(int p = 0; p<num; p++){
+      int c = (int)(record>>>(4*p))&0xF;
+      hand[p] = c==0?null:cards[c-1];
+      for(int q = 0; q<num; q++)
+        known[p][q] = (record&(1L<<(16+4*p+q)))!=0;
+      discardCount[p] = (int)(record>>>(43+4*p))&0xF;
+    }
+    handmaid[0] = (int)(record>>>32)&0xF;
+    top[0] = (int)(record>>>36)&0x1F;
+    nextPlayer[0] = (int)(record>>>41)&3;
+    recount();
+  }
+
+  private int guardAction(int a, int t, Card guess){
     if(allHandmaid(a))
-      return "\nPlayer "+name(t)+" is protected by the Handmaid.";//no effect action
+      return Outcome.PROTECTED;//no effect action
     else if(guess==hand[t]){//correct guess, target eliminated
-      discards[t][discardCount[t]++] = hand[t];
-      hand[t]=null;
-      for(int p = 0; p<num; p++)known[p][t]=true;
-      return "\nPlayer "+name(t)+" had the "+guess+" and is eliminated from the round";
+      return eliminate(t);
     } 
-    else return "\nPlayer "+name(t)+" does not have the "+guess;
+    else return Outcome.NONE;
   }
 
-  private String priestAction(int a, int t){
+  private int priestAction(int a, int t){
     if(allHandmaid(a))
-      return "\nPlayer "+name(t)+" is protected by the Handmaid.";//no effect action
+      return Outcome.PROTECTED;//no effect action
     else known[a][t]=true;
-    return "\nPlayer "+name(a)+" sees player "+name(t)+"'s card.";
+    return Outcome.REVEALED;
   }
 
-  private String baronAction(int a, int t){
+  private int baronAction(int a, int t){
     if(allHandmaid(a))
-      return "\nPlayer "+name(t)+" is protected by the Handmaid.";//no effect action
+      return Outcome.PROTECTED;//no effect action
     int elim = -1;
     if(hand[a].value()>hand[t].value()) elim = t;
     else if(hand[a].value()<hand[t].value()) elim = a;
-    if(elim!=-1){
-      discards[elim][discardCount[elim]++] = hand[elim];
-      hand[elim]=null;
-      for(int p = 0; p<num; p++) known[p][elim]=true;
-      return "\nPlayer "+name(elim)+" holds the lesser card: "+discards[elim][discardCount[elim]-1]+", and is eliminated";
-    }
+    if(elim!=-1)
+      return eliminate(elim);
     known[a][t]=true;
     known[t][a]=true;
-    return "\n Both players hold the same card, and neither is eliminated.";
+    return Outcome.REVEALED;
   }
 
   //handmaid action requires no update
 
-  private String princeAction(int t){
+  private int princeAction(int t){
     Card discard = hand[t];
-    discards[t][discardCount[t]++] = discard;
-    if(discard==Card.PRINCESS){
-      hand[t]=null;
-      for(int p = 0; p<num; p++) known[p][t]=true;
-      return "\nPlayer "+name(t)+" discarded the Princess and is eliminated.";
-    }
+    if(discard==Card.PRINCESS)
+      return eliminate(t);
+    discard(t, discard);
     hand[t]=deck[top[0]++];
     for(int p =0; p<num;p++) 
       if(p!=t)known[p][t]=false;
-    return "\nPlayer "+name(t)+" discards the "+discard+".";
+    return Outcome.discarded(discard);
   }
 
-  private String kingAction(int a, int t){
+  private int kingAction(int a, int t){
     if(allHandmaid(a))
-      return "\nPlayer "+name(t)+" is protected by the Handmaid.";
+      return Outcome.PROTECTED;
     known[a][t]=true;
     known[t][a]=true;
     for(int p =0; p<num;p++){ 
@@ -293,18 +469,30 @@ public class State implements Cloneable {
     Card tmp = hand[a];
     hand[a] = hand[t];
     hand[t] = tmp;
-    return "\nPlayer "+name(a)+" and player "+name(t)+" swap cards.";
+    return Outcome.NONE;
   }
 
   //countess action not required
   
-  private String princessAction(int a){
-    discards[a][discardCount[a]++] = hand[a];
-    hand[a]=null;
-    for(int p = 0; p< num; p++) known[p][a]=true;
-    String outcome =  "\nPlayer "+name(a)+" played the Princess and is eliminated.";
-    outcome += "\n Player "+name(a)+" was also holding the "+discards[a][discardCount[a]-1]+".";
-    return outcome;
+  private int princessAction(int a){
+    return eliminate(a);
+  }
+
+  //discards the player's card and removes them from the round
+  private int eliminate(int p){
+    Card c = hand[p];
+    discard(p, c);
+    hand[p]=null;
+    alive[0]&=~(1<<p);
+    for(int q = 0; q<num; q++) known[q][p]=true;
+    return Outcome.eliminated(p, c);
+  }
+
+  //moves a card from the player's hand to their discard pile
+  private void discard(int p, Card c){
+    discards[p][discardCount[p]++] = c;
+    discardValue[p]+=c.value();
+    unseen[c.ordinal()]--;
   }
 
   /**
@@ -373,7 +561,7 @@ public class State implements Cloneable {
    * **/
   public boolean handmaid(int player){
     if(player<0 || player >=num) return false;
-    return handmaid[player];
+    return (handmaid[0]&(1<<player))!=0;
   }
 
   /**
@@ -383,10 +571,7 @@ public class State implements Cloneable {
    * @throws ArrayIndexoutOfBoundsException if the playerIndex is out of range.
    * **/
   public boolean allHandmaid(int player){
-    boolean noAction = true;
-    for(int i = 0; i<num; i++)
-      noAction = noAction && (eliminated(i) || handmaid[i] || i==player); 
-    return noAction;
+    return (alive[0]&~handmaid[0]&~(1<<player))==0;
   }
 
   private String name(int playerIndex){
@@ -403,31 +588,61 @@ public class State implements Cloneable {
   /**
    * returns an array of the remaining cards that haven't been played yet.
    * Should be called unplayedCards???
-   * @return an array of all cards not in the discard piles
+   * @return an array of all cards not in the discard piles, in order
    ***/
   public Card[] unseenCards(){
-    int alive = 0;
-    for(int p = 0; p<num; p++)
-      if(!eliminated(p))alive++;
-    Card[] rem = new Card[deckSize()+alive];
-    int aCount = 0;
-    for(int p = 0; p<num; p++)
-      if(!eliminated(p)) rem[aCount++]=hand[p];
-    for(int i = 0; i<deckSize(); i++) rem[alive+i] = deck[top[0]+i];
-    java.util.Arrays.sort(rem);
+    Card[] rem = new Card[deckSize()+alivePlayers()];
+    int n = 0;
+    for(int c = 0; c<CARDS.length; c++)
+      for(int i = 0; i<unseen[c]; i++) rem[n++] = CARDS[c];
     return rem;
   }
 
+  /**
+   * gives how many copies of a card have not been played yet, that is, are in a player's hand or the deck.
+   * The card just drawn by the player to move is not counted until it is played or kept.
+   * @param card the card sought
+   * @return the number of copies of the card among the unseen cards
+   * **/
+  public int unseenCount(Card card){
+    return unseen[card.ordinal()];
+  }
+
+  /**
+   * Copies how many copies of each card have not been played yet into an array supplied by the caller,
+   * so no objects are created.
+   * @param counts the array to fill, indexed by card ordinal, of length at least 8
+   * @return the counts array
+   * **/
+  public int[] unseenCounts(int[] counts){
+    System.arraycopy(unseen, 0, counts, 0, unseen.length);
+    return counts;
+  }
+
+  /**
+   * gives the number of players who have not been eliminated from the round
+   * @return the number of players still in the round
+   * **/
+  public int alivePlayers(){
+    return Integer.bitCount(alive[0]);
+  }
+
+  /**
+   * gives the sum of the values of the cards the player has discarded this round, used to break ties
+   * @param player the player whose discards are sought
+   * @return the total value of the player's discard pile
+   * **/
+  public int discardValue(int player){
+    return discardValue[player];
+  }
+
   /**
    * Tests to see if the round is over, either by all but one player being eliminated
    * or by all but one card being drawn from the deck.
    * @return true if and only if the round is over
    * **/
   public boolean roundOver(){
-    int remaining = 0;
-    for(int i=0; i<num; i++) 
-      if(!eliminated(i)) remaining++;
-    return remaining==1 || deckSize()<2;
+    return alivePlayers()==1 || deckSize()<2;
   }
 
   /**helper method to determine the winner of the round.
@@ -442,8 +657,7 @@ public class State implements Cloneable {
     int discardValue=-1;
     for(int p=0; p<num; p++){
       if(!eliminated(p)){
-        int dv = 0;
-        for(int j=0; j<discardCount[p]; j++) dv+=discards[p][j].value();
+        int dv = this.discardValue[p];
         if(hand[p].value()>topCard || (hand[p].value()==topCard && dv>discardValue)){
           winner = p;
           topCard = hand[p].value();
@@ -0,0 +1,354 @@
+package loveletter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.SplittableRandom;
+
+/**
+ * A class for running many headless games of LoveLetter in parallel, to
+ * evaluate agents over a large number of games. A tournament is given a pool of
+ * agent classes and a set of lineups, each being the indexes into the pool of
+ * the agents that play a game together. Every lineup is played for the given
+ * number of games, optionally rotating the seats each game so no agent always
+ * starts.
+ *
+ * The games are split into fixed size blocks, played by worker threads each
+ * with its own engine and its own instances of the agents, and nothing is
+ * printed. Each block deals from its own generator, split in order from a root
+ * generator seeded by the tournament's seed, and hands each agent a generator
+ * split from the block's in a fixed order, so every game is dealt and played
+ * the same whatever the number of threads, as long as no move runs out of time.
+ */
+public class Tournament {
+
+  // the number of consecutive games dealt from each split generator
+  private static final int BLOCK = 256;
+
+  private Class<? extends Agent>[] pool;
+  private int[][] lineups;
+  private boolean rotate;
+  private int games;
+  private long seed;
+  private int threads;
+  private EventStream events;
+  private long moveTime;
+
+  /**
+   * Constructs a tournament, using every available processor.
+   *
+   * @param pool    the classes of the agents taking part, each of which must
+   *                have a 0 parameter constructor
+   * @param lineups the games to play, as arrays of 2 to 4 indexes into the pool
+   * @param rotate  whether to rotate the seats of each lineup from game to game
+   * @param games   the number of games to play for each lineup
+   * @param seed    the seed of the root generator, from which every deal is derived
+   * @throws IllegalArgumentException if a lineup is of the wrong size or refers
+   *                                  to an agent not in the pool
+   **/
+  public Tournament(Class<? extends Agent>[] pool, int[][] lineups, boolean rotate, int games, long seed) {
+    for (int[] lineup : lineups) {
+      if (lineup.length < 2 || lineup.length > 4)
+        throw new IllegalArgumentException("incorrect number of agents in lineup");
+      for (int a : lineup)
+        if (a < 0 || a >= pool.length)
+          throw new IllegalArgumentException("Agent out of range.");
+    }
+    this.pool = pool;
+    this.lineups = lineups;
+    this.rotate = rotate;
+    this.games = games;
+    this.seed = seed;
+    this.threads = Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Sets the number of worker threads used to play the games.
+   *
+   * @param threads the number of threads, at least 1
+   **/
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Sets the stream the events of every game are published to, for listeners
+   * collecting more than the aggregated results.
+   *
+   * @param events the stream of events, or null to publish no events
+   **/
+  public void setEvents(EventStream events) {
+    this.events = events;
+  }
+
+  /**
+   * Sets the time each agent is allowed to choose a move, see
+   * LoveLetter.setMoveTime.
+   *
+   * @param millis the time allowed for each move in milliseconds, or 0 for no
+   *               limit (the default)
+   **/
+  public void setMoveTime(long millis) {
+    this.moveTime = millis;
+  }
+
+  /**
+   * Plays every game of the tournament, and waits for them all to finish.
+   *
+   * @return the aggregated results of the games
+   * @throws InterruptedException if interrupted while waiting for the workers
+   **/
+  public Results run() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    ConcurrentLinkedQueue<Worker> created = new ConcurrentLinkedQueue<Worker>();
+    ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> {
+      Worker w = new Worker();
+      created.add(w);
+      return w;
+    });
+    try {
+      List<Future<Results>> blocks = new ArrayList<Future<Results>>();
+      SplittableRandom root = new SplittableRandom(seed);
+      long count = (long) games * lineups.length;
+      for (long g = 0; g < count; g += BLOCK) {
+        final long first = g;
+        final long last = Math.min(count, g + BLOCK);
+        final SplittableRandom random = root.split();
+        blocks.add(executor.submit(() -> workers.get().play(first, last, random)));
+      }
+      Results total = new Results(pool.length);
+      for (Future<Results> f : blocks) {
+        try {
+          total.merge(f.get());
+        } catch (java.util.concurrent.ExecutionException e) {
+          throw new IllegalStateException("Tournament worker failed", e.getCause());
+        }
+      }
+      return total;
+    } finally {
+      executor.shutdownNow();
+      for (Worker w : created)
+        w.engine.close();
+    }
+  }
+
+  /**
+   * The engine and agents of one worker thread, reused for every block of games
+   * the thread plays.
+   */
+  private class Worker {
+    private LoveLetter engine = new LoveLetter(0, null);
+    private Agent[][] agents = new Agent[lineups.length][];
+
+    /**
+     * Plays a block of consecutive games. Each member of every lineup is first
+     * handed a generator split from the block's generator, in lineup order, and
+     * every game is then dealt from the block's generator.
+     *
+     * @param first  the index of the first game of the block
+     * @param last   the index after the last game of the block
+     * @param random the generator for the block
+     * @return the results of the block's games
+     **/
+    private Results play(long first, long last, SplittableRandom random) {
+      Results results = new Results(pool.length);
+      for (int l = 0; l < lineups.length; l++) {
+        if (agents[l] == null) {
+          agents[l] = new Agent[lineups[l].length];
+          for (int i = 0; i < lineups[l].length; i++)
+            agents[l][i] = newAgent(pool[lineups[l][i]]);
+        }
+        for (Agent a : agents[l])
+          a.setRandom(random.split());
+      }
+      engine.setRandom(random);
+      engine.setEvents(events);
+      engine.setMoveTime(moveTime);
+      for (long g = first; g < last; g++) {
+        int l = (int) (g % lineups.length);
+        int[] lineup = lineups[l];
+        // seat i is taken by lineup member (i+shift), so every member gets every seat
+        int shift = rotate ? (int) ((g / lineups.length) % lineup.length) : 0;
+        Agent[] seats = new Agent[lineup.length];
+        int[] members = new int[lineup.length];
+        for (int i = 0; i < lineup.length; i++) {
+          members[i] = lineup[(i + shift) % lineup.length];
+          seats[i] = agents[l][(i + shift) % lineup.length];
+        }
+        results.record(members, engine.playGame(seats));
+      }
+      return results;
+    }
+  }
+
+  private static Agent newAgent(Class<? extends Agent> c) {
+    try {
+      return c.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("Cannot construct agent " + c.getName(), e);
+    }
+  }
+
+  private static Class<? extends Agent> agentClass(String name) throws ClassNotFoundException {
+    try {
+      return Class.forName(name).asSubclass(Agent.class);
+    } catch (ClassCastException e) {
+      throw new IllegalArgumentException("not an Agent: " + name, e);
+    }
+  }
+
+  /**
+   * The aggregated results of a tournament. Statistics are kept for each agent
+   * in the pool, and for each seat, seat 0 being the player who starts the game.
+   */
+  public static class Results {
+
+    private long games; // games completed
+    private long failed; // games abandoned by the engine
+    private long rounds; // rounds played in completed games
+    private long[] played; // games each agent took part in, counting each seat it held
+    private long[] wins; // games won by each agent
+    private long[] roundWins; // rounds won by each agent
+    private long[] seatWins; // games won from each seat
+    private long[][] agentSeatGames; // games each agent played from each seat
+    private long[][] agentSeatWins; // games each agent won from each seat
+
+    private Results(int agents) {
+      played = new long[agents];
+      wins = new long[agents];
+      roundWins = new long[agents];
+      seatWins = new long[4];
+      agentSeatGames = new long[agents][4];
+      agentSeatWins = new long[agents][4];
+    }
+
+    private void record(int[] members, int[] scores) {
+      if (scores == null) {
+        failed++;
+        return;
+      }
+      games++;
+      int winner = 0;
+      for (int seat = 0; seat < scores.length; seat++) {
+        int a = members[seat];
+        rounds += scores[seat];
+        played[a]++;
+        roundWins[a] += scores[seat];
+        agentSeatGames[a][seat]++;
+        if (scores[seat] > scores[winner])
+          winner = seat;
+      }
+      wins[members[winner]]++;
+      seatWins[winner]++;
+      agentSeatWins[members[winner]][winner]++;
+    }
+
+    private void merge(Results r) {
+      games += r.games;
+      failed += r.failed;
+      rounds += r.rounds;
+      seatWins = add(seatWins, r.seatWins);
+      played = add(played, r.played);
+      wins = add(wins, r.wins);
+      roundWins = add(roundWins, r.roundWins);
+      for (int a = 0; a < played.length; a++) {
+        agentSeatGames[a] = add(agentSeatGames[a], r.agentSeatGames[a]);
+        agentSeatWins[a] = add(agentSeatWins[a], r.agentSeatWins[a]);
+      }
+    }
+
+    private static long[] add(long[] x, long[] y) {
+      for (int i = 0; i < x.length; i++)
+        x[i] += y[i];
+      return x;
+    }
+
+    /** @return the number of games completed **/
+    public long games() {return games;}
+
+    /** @return the number of games the engine abandoned with an error **/
+    public long failedGames() {return failed;}
+
+    /** @return the total number of rounds played in completed games **/
+    public long rounds() {return rounds;}
+
+    /**
+     * @param agent the index of the agent in the pool
+     * @return the number of games the agent played, counting each seat it held
+     **/
+    public long played(int agent) {return played[agent];}
+
+    /**
+     * @param agent the index of the agent in the pool
+     * @return the number of games the agent won
+     **/
+    public long wins(int agent) {return wins[agent];}
+
+    /**
+     * @param agent the index of the agent in the pool
+     * @return the number of rounds the agent won
+     **/
+    public long roundWins(int agent) {return roundWins[agent];}
+
+    /**
+     * @param seat the seat, 0 being the first player
+     * @return the number of games won from the seat
+     **/
+    public long seatWins(int seat) {return seatWins[seat];}
+
+    /**
+     * @param agent the index of the agent in the pool
+     * @param seat  the seat, 0 being the first player
+     * @return the number of games the agent played from the seat
+     **/
+    public long seatGames(int agent, int seat) {return agentSeatGames[agent][seat];}
+
+    /**
+     * @param agent the index of the agent in the pool
+     * @param seat  the seat, 0 being the first player
+     * @return the number of games the agent won from the seat
+     **/
+    public long seatWins(int agent, int seat) {return agentSeatWins[agent][seat];}
+
+    /**
+     * produces a table of the results
+     *
+     * @return a string representation of the results
+     **/
+    public String toString() {
+      String str = games + " games, " + rounds + " rounds, " + failed + " failed";
+      str += "\nseat wins: " + java.util.Arrays.toString(seatWins);
+      for (int a = 0; a < played.length; a++) {
+        str += "\nagent " + a + ": " + wins[a] + "/" + played[a] + " games, " + roundWins[a] + " rounds";
+        str += ", seat wins " + java.util.Arrays.toString(agentSeatWins[a]);
+        str += " of " + java.util.Arrays.toString(agentSeatGames[a]);
+      }
+      return str;
+    }
+  }
+
+  /**
+   * Runs a tournament of one lineup with rotating seats, and prints the results.
+   * The first argument is the number of games, and the rest are the class names
+   * of the agents in the lineup.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public static void main(String[] args) throws Exception {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    String[] names = args.length > 2 ? java.util.Arrays.copyOfRange(args, 1, args.length)
+        : new String[] { "agents.KnowledgeAgent", "agents.RandomAgent", "agents.RandomAgent", "agents.RandomAgent" };
+    Class<? extends Agent>[] pool = new Class[names.length];
+    int[] lineup = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      pool[i] = agentClass(names[i]);
+      lineup[i] = i;
+    }
+    long start = System.currentTimeMillis();
+    Results results = new Tournament(pool, new int[][] { lineup }, true, games, 0).run();
+    System.out.println(results);
+    System.out.println("Took " + (System.currentTimeMillis() - start) + "ms");
+  }
+}